@@ -29,6 +29,14 @@ public final class Constants {
   public static final double CAMERA_ANGLE = 37;
   public static final double CAMERA_HEIGHT = 0.5842;
   public static final double TARGET_HEIGHT = 2.6414;
+  // Direction the camera (and shooter) faces relative to the robot's +x axis,
+  // radians counter-clockwise. Both look out of the back of the robot.
+  public static final double CAMERA_YAW = Math.PI;
+
+  // Hub, field positions are relative to the hub center
+  public static final double HUB_X = 0;
+  public static final double HUB_Y = 0;
+  public static final double HUB_RADIUS = 0.6096; // vision tape to hub center
 
 	// Xbox Controllers Port Indexes
 	public static final int DRIVE_CONTROLLER_PORT = 0;
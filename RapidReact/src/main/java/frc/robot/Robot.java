@@ -1,6 +1,8 @@
 package frc.robot;
 
 import edu.wpi.first.wpilibj.TimedRobot;
+import edu.wpi.first.wpilibj.Timer;
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.CommandScheduler;
 
@@ -48,11 +50,15 @@ public class Robot extends TimedRobot {
   public void disabledInit() {}
 
   @Override
-  public void disabledPeriodic() {}
+  public void disabledPeriodic() {
+    // Build the selected autonomous while we wait so autonomousInit only has to schedule it.
+    m_robotContainer.prepareAutonomousCommand();
+  }
 
   /** This autonomous runs the autonomous command selected by your {@link RobotContainer} class. */
   @Override
   public void autonomousInit() {
+    double startTime = Timer.getFPGATimestamp();
     m_autonomousCommand = m_robotContainer.getAutonomousCommand();
 
     /*
@@ -66,6 +72,11 @@ public class Robot extends TimedRobot {
     if (m_autonomousCommand != null) {
       m_autonomousCommand.schedule();
     }
+
+    // report how long it took to get the autonomous command going
+    double startupTime = (Timer.getFPGATimestamp() - startTime) * 1000;
+    SmartDashboard.putNumber("Auto Startup ms", startupTime);
+    System.out.println("Autonomous started in " + startupTime + " ms");
   }
 
   /** This function is called periodically during autonomous. */
@@ -2,11 +2,13 @@ package frc.robot;
 
 import edu.wpi.first.math.geometry.Pose2d;
 import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj.XboxController;
 import edu.wpi.first.wpilibj.XboxController.Button;
 import edu.wpi.first.wpilibj.shuffleboard.BuiltInWidgets;
 import edu.wpi.first.wpilibj.shuffleboard.Shuffleboard;
 import edu.wpi.first.wpilibj.smartdashboard.SendableChooser;
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.InstantCommand;
 import edu.wpi.first.wpilibj2.command.ParallelCommandGroup;
@@ -24,18 +26,22 @@ import frc.robot.commands.HomeBlueHookCommand;
 import frc.robot.commands.IntakeCommand;
 import frc.robot.commands.RotateWindmillCommand;
 import frc.robot.commands.ShootCommand;
+import frc.robot.commands.ShotCaptureCommand;
 import frc.robot.commands.SwitchBlueHookCommand;
 import frc.robot.commands.SwitchRedHookCommand;
 import frc.robot.commands.WaitForSecondsCommand;
 import frc.robot.drivers.Pigeon;
+import frc.robot.subsystems.CargoTrackerSubsystem;
 import frc.robot.subsystems.ClimberSubsystem;
 import frc.robot.subsystems.DrivetrainSubsystem;
 import frc.robot.subsystems.FeederSubsystem;
 import frc.robot.utils.XboxControllerHelper;
-import frc.robot.utils.Ranger;
-import frc.robot.utils.SimpleRanger;
+import frc.robot.utils.FiringTableRanger;
+import frc.robot.utils.ShotDataset;
+import frc.robot.utils.ShotSolver;
 import frc.robot.utils.SwerveDriveConfig;
 import frc.robot.utils.SwerveModuleConfig;
+import frc.robot.utils.trajectory.AutoBuilder;
 import frc.robot.utils.trajectory.TrajectoryFactory;
 import frc.robot.subsystems.IntakeSubsystem;
 import frc.robot.subsystems.LimelightSubsystem;
@@ -59,12 +65,12 @@ public class RobotContainer {
     private final XboxController driveController = new XboxController(Constants.DRIVE_CONTROLLER_PORT);
     private final XboxControllerHelper driveControllerHelper = new XboxControllerHelper(driveController);
     private final XboxController operatorController = new XboxController(Constants.OPERATOR_CONTROLLER_PORT);
-    // private final XboxController testController = new
-    // XboxController(Constants.TEST_CONTROLLER_PORT);
+    private final XboxController testController = new XboxController(Constants.TEST_CONTROLLER_PORT);
 
     Pigeon pigeon = new Pigeon(DRIVETRAIN_PIGEON_ID);
     // private final Pixy pixy = new Pixy(Pixy.TEAM_RED);
-    private final Ranger ranger = new SimpleRanger();
+    private final FiringTableRanger ranger = new FiringTableRanger();
+    private final ShotDataset shotDataset = new ShotDataset();
     private final TrajectoryFactory trajectoryFactory = new TrajectoryFactory();
 
     // Subsystems
@@ -74,6 +80,7 @@ public class RobotContainer {
     private DrivetrainSubsystem drivetrain;
     private LimelightSubsystem limelight;
     private ClimberSubsystem climber;
+    private CargoTrackerSubsystem cargoTracker;
 
     // Commands
     private Command homeHookCommand;
@@ -85,6 +92,10 @@ public class RobotContainer {
     private final HashMap<String, Supplier<Command>> commandCreators = new HashMap<String, Supplier<Command>>();
     private SendableChooser<Supplier<Command>> chooser = new SendableChooser<Supplier<Command>>();
 
+    // Autonomous command built ahead of time while disabled
+    private Supplier<Command> preparedCreator;
+    private Command preparedCommand;
+
     public RobotContainer() {
 
         createSubsystems(); // Create our subsystems.
@@ -104,6 +115,7 @@ public class RobotContainer {
                 HOOD_LIMITSWITCH_DIO, ranger);
         intake = new IntakeSubsystem(INTAKE_MOTOR_CAN_ID, BOOM_RETRACT_SOLENOID_CHAN, BOOM_EXTEND_SOLENOID_CHAN,
                 ARM_RETRACT_SOLENOID_CHAN, ARM_EXTEND_SOLENOID_CHAN);
+        cargoTracker = new CargoTrackerSubsystem(feeder, intake, shooter);
         climber = new ClimberSubsystem(ELEVATOR_CAN_ID, WINDMILL_1_CAN_ID, WINDMILL_2_CAN_ID,
                 RED_HOOK_CAN_ID, BLUE_HOOK_CAN_ID, WINDMILL_SENSOR_DIO);
 
@@ -121,6 +133,7 @@ public class RobotContainer {
         drivetrain = new DrivetrainSubsystem(swerveConfig, pigeon); // pixy
 
         limelight = new LimelightSubsystem(CAMERA_ANGLE, CAMERA_HEIGHT, TARGET_HEIGHT);
+        drivetrain.setVisionSource(limelight);
     }
 
     /**
@@ -193,6 +206,10 @@ public class RobotContainer {
         new JoystickButton(driveController, Button.kStart.value)
                 .whenPressed(new InstantCommand(() -> drivetrain.resetPosition()));
 
+        // Teleop shooting stays uncompensated for robot motion until the time
+        // of flight has been measured, see ShotSolver.
+        SmartDashboard.putBoolean("Shot Motion Compensation", ShotSolver.hasTimeOfFlight());
+
         // Schedule the Shoot command to fire a cargo
         new Trigger(() -> driveController.getLeftTriggerAxis() > 0.8).whileActiveOnce(
                 new ParallelCommandGroup(
@@ -254,6 +271,16 @@ public class RobotContainer {
 
         new JoystickButton(operatorController, Button.kRightBumper.value).whenPressed(homeHookCommand);
 
+        // test controls: shot map capture. Start toggles a capture session, the POV
+        // sets speed and hood while capturing, the right trigger fires, A marks the
+        // last shot as made and Y regenerates the firing table from all captured shots.
+        new JoystickButton(testController, Button.kStart.value).toggleWhenPressed(
+                new ShotCaptureCommand(shooter, feeder, limelight, shotDataset, ranger,
+                        () -> testController.getPOV(),
+                        () -> testController.getRightTriggerAxis() > 0.8,
+                        () -> testController.getAButton(),
+                        () -> testController.getYButton()));
+
     }
 
     public Command getHomeHookCommand() {
@@ -268,8 +295,63 @@ public class RobotContainer {
      */
     public Command getAutonomousCommand() {
 
+        // Autonomous starts with the preloaded cargo, which the tracker only
+        // knows about if a feeder beam can see it.
+        cargoTracker.setCargoCount(1);
+
+        Supplier<Command> creator = chooser.getSelected();
+        if (creator == null) {
+            return null;
+        }
+
+        // Use the command built while disabled if the selection has not changed since.
+        boolean prepared = creator == preparedCreator;
+        Command command = prepared ? preparedCommand : creator.get();
+
+        // A command instance should only be run once, build a fresh one next time.
+        preparedCreator = null;
+        preparedCommand = null;
+
+        SmartDashboard.putBoolean("Auto Prepared", prepared);
+        return command;
+    }
+
+    /**
+     * Called by the main {@link Robot} class while disabled. When the selected
+     * autonomous changes, build it ahead of time so the class loading and JIT
+     * cost of creating it is paid before autonomous starts. Building starts
+     * generating any trajectories it needs without waiting for them, see
+     * "Trajectories Ready" for when they are done.
+     */
+    public void prepareAutonomousCommand() {
+        SmartDashboard.putBoolean("Trajectories Ready", trajectoriesReady());
+
         Supplier<Command> creator = chooser.getSelected();
-        return creator.get();
+        if (creator == null || creator == preparedCreator) {
+            return;
+        }
+
+        double startTime = Timer.getFPGATimestamp();
+
+        preparedCommand = creator.get();
+        preparedCreator = creator;
+
+        double buildTime = (Timer.getFPGATimestamp() - startTime) * 1000;
+        SmartDashboard.putNumber("Auto Prepare ms", buildTime);
+        System.out.println("Prepared autonomous command in " + buildTime + " ms");
+    }
+
+    /**
+     * @return True if no trajectory that has been asked for is still being
+     *         generated
+     */
+    private boolean trajectoriesReady() {
+        for (String name : trajectoryFactory.getNames()) {
+            if (trajectoryFactory.isPending(name)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -311,11 +393,12 @@ public class RobotContainer {
     private Command createTaxiOnlyCommand() {
         return new SequentialCommandGroup(
                 new InstantCommand(() -> drivetrain.setAutoInitPose(new Pose2d(-0.5, -2, Rotation2d.fromDegrees(-90)))),
-                new FollowerCommand(drivetrain, trajectoryFactory.get("start to ball2")));
+                new FollowerCommand(drivetrain, trajectoryFactory.getLater("start to ball2")));
     }
 
     private Command createShootOnlyCommand() {
-        return new ShootCommand(shooter, feeder, limelight, () -> false).withTimeout(2)
+        return new ShootCommand(shooter, feeder, limelight, () -> false)
+                .untilCargoFired(cargoTracker, 1).withTimeout(2)
                 .raceWith(new AimCommand(limelight, drivetrain));
     }
 
@@ -336,13 +419,19 @@ public class RobotContainer {
      * }
      */
 
+    /**
+     * @return Builder for an autonomous routine using our subsystems
+     */
+    private AutoBuilder newAuto() {
+        return new AutoBuilder(drivetrain, shooter, feeder, intake, limelight, cargoTracker, trajectoryFactory);
+    }
+
     public Command createRightTwoBallCommand() {
-        return new SequentialCommandGroup(
-                new InstantCommand(() -> drivetrain.setAutoInitPose(new Pose2d(-0.5, -2, Rotation2d.fromDegrees(-90)))),
-                new FollowerCommand(drivetrain, trajectoryFactory.get("start to ball2"))
-                        .raceWith(new IntakeCommand(intake, feeder, () -> false)),
-                new ShootCommand(shooter, feeder, limelight, () -> false).withTimeout(5)
-                        .raceWith(new AimCommand(limelight, drivetrain)));
+        return newAuto()
+                .startAt(new Pose2d(-0.5, -2, Rotation2d.fromDegrees(-90)))
+                .driveAndIntake("start to ball2")
+                .shoot(2, 5)
+                .build();
     }
 
     /**
@@ -351,17 +440,13 @@ public class RobotContainer {
      * @return Command to perform 3 ball autonomous
      */
     private Command createThreeBallCommand() {
-        return new SequentialCommandGroup(
-                new InstantCommand(() -> drivetrain.setAutoInitPose(new Pose2d(-0.5, -2, Rotation2d.fromDegrees(-90)))),
-                new IntakeCommand(intake, feeder, () -> false)
-                        .raceWith(new FollowerCommand(drivetrain, trajectoryFactory.get("start to ball2"))),
-                new ShootCommand(shooter, feeder, limelight, () -> false).withTimeout(2.5)
-                        .raceWith(new AimCommand(limelight, drivetrain)),
-
-                new IntakeCommand(intake, feeder, () -> false)
-                        .raceWith(new FollowerCommand(drivetrain, trajectoryFactory.get("ball2 to ball3"))),
-                new ShootCommand(shooter, feeder, limelight, () -> false).withTimeout(2.5)
-                        .raceWith(new AimCommand(limelight, drivetrain)));
+        return newAuto()
+                .startAt(new Pose2d(-0.5, -2, Rotation2d.fromDegrees(-90)))
+                .driveAndIntake("start to ball2")
+                .shoot(2, 2.5)
+                .driveAndIntake("ball2 to ball3")
+                .shoot(1, 2.5)
+                .build();
     }
 
     /**
@@ -370,48 +455,34 @@ public class RobotContainer {
      * @return Command to perform 5 ball autonomous
      */
     private Command createFiveBallCommand() {
-        return new SequentialCommandGroup(
-                new InstantCommand(() -> drivetrain.setAutoInitPose(new Pose2d(-0.5, -2, Rotation2d.fromDegrees(-90)))),
-                new FollowerCommand(drivetrain, trajectoryFactory.get("start to ball2"))
-                        .raceWith(new IntakeCommand(intake, feeder, () -> false)),
-                new ShootCommand(shooter, feeder, limelight, () -> false).withTimeout(2)
-                        .raceWith(new AimCommand(limelight, drivetrain)),
-
-                new FollowerCommand(drivetrain, trajectoryFactory.get("ball2 to ball3"))
-                        .raceWith(new IntakeCommand(intake, feeder, () -> false)),
-                new ShootCommand(shooter, feeder, limelight, () -> false).withTimeout(1)
-                        .raceWith(new AimCommand(limelight, drivetrain)),
-
-                new FollowerCommand(drivetrain, trajectoryFactory.get("ball3 to station"))
-                        .raceWith(new IntakeCommand(intake, feeder, () -> false)),
-                new FollowerCommand(drivetrain, trajectoryFactory.get("station to shoot")),
-                new ShootCommand(shooter, feeder, limelight, () -> false).withTimeout(3)
-                        .raceWith(new AimCommand(limelight, drivetrain)));
+        return newAuto()
+                .startAt(new Pose2d(-0.5, -2, Rotation2d.fromDegrees(-90)))
+                .driveAndIntake("start to ball2")
+                .shoot(2, 2)
+                .driveAndIntake("ball2 to ball3")
+                .shoot(1, 1)
+                .driveAndIntake("ball3 to station")
+                .drive("station to shoot")
+                .shoot(2, 3)
+                .build();
     }
 
     private Command createFiveBallLineCommand() {
-        return new SequentialCommandGroup(
-                new InstantCommand(() -> drivetrain.setAutoInitPose(new Pose2d(-0.5, -2, Rotation2d.fromDegrees(-90)))),
-                new FollowerCommand(drivetrain, trajectoryFactory.get("start to ball2"))
-                        .raceWith(new IntakeCommand(intake, feeder, () -> false)),
-                new ShootCommand(shooter, feeder, limelight, () -> false).withTimeout(1.6)
-                        .raceWith(new AimCommand(limelight, drivetrain)),
-
-                new FollowerCommand(drivetrain, trajectoryFactory.get("ball2 to ball3"))
-                        .raceWith(new IntakeCommand(intake, feeder, () -> false)),
-                new ShootCommand(shooter, feeder, limelight, () -> false).withTimeout(1)
-                        .raceWith(new AimCommand(limelight, drivetrain)),
-
-                new FollowerCommand(drivetrain, trajectoryFactory.get("ball3 to station line"))
-                        .raceWith(new IntakeCommand(intake, feeder, () -> false)),
-                new FollowerCommand(drivetrain, trajectoryFactory.get("station to shoot line")),
-                new ShootCommand(shooter, feeder, limelight, () -> false).withTimeout(3)
-                        .raceWith(new AimCommand(limelight, drivetrain)));
+        return newAuto()
+                .startAt(new Pose2d(-0.5, -2, Rotation2d.fromDegrees(-90)))
+                .driveAndIntake("start to ball2")
+                .shoot(2, 1.6)
+                .driveAndIntake("ball2 to ball3")
+                .shoot(1, 1)
+                .driveAndIntake("ball3 to station line")
+                .drive("station to shoot line")
+                .shoot(2, 3)
+                .build();
     }
 
     public Command createTuneAutoCommand() {
         return new SequentialCommandGroup(
                 new InstantCommand(() -> drivetrain.resetPosition()),
-                new FollowerCommand(drivetrain, trajectoryFactory.get("tune curve")));
+                new FollowerCommand(drivetrain, trajectoryFactory.getLater("tune curve")));
     }
 }
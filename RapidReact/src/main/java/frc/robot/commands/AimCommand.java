@@ -6,21 +6,61 @@ package frc.robot.commands;
 
 import java.util.function.DoubleSupplier;
 
+import edu.wpi.first.math.MathUtil;
 import edu.wpi.first.math.controller.PIDController;
 import edu.wpi.first.math.kinematics.ChassisSpeeds;
 import edu.wpi.first.wpilibj2.command.CommandBase;
+import frc.robot.Constants;
 import frc.robot.subsystems.DrivetrainSubsystem;
 import frc.robot.subsystems.LimelightSubsystem;
+import frc.robot.utils.LimelightFrame;
+import frc.robot.utils.PoseHistory;
+import frc.robot.utils.ShotSolver;
 
+/**
+ * Turns the shooter towards the hub while the driver translates. The shooter
+ * and camera face the back of the robot (Constants.CAMERA_YAW), and all aim
+ * offsets from the ShotSolver are relative to that direction, so the robot
+ * ends up with its rear to the hub.
+ *
+ * In CAMERA mode the loop closes directly on the (motion compensated) Limelight
+ * offset, which is only as fresh as the last frame and 20-60ms old, so the gains
+ * have to stay soft. In HEADING mode each new frame is turned into a field
+ * relative heading that points the shooter at the hub, using the heading the
+ * robot had when the image was captured, and the loop closes on the 200Hz gyro
+ * heading towards it, so it can be much stiffer without overshooting.
+ */
 public class AimCommand extends CommandBase {
+
+	public enum AimMode {
+		CAMERA,
+		HEADING
+	}
+
+	// heading loop, radians in and radians/second out
+	private static final double HEADING_KP = 4.0;
+	private static final double HEADING_KD = 0.1;
+	private static final double HEADING_TOLERANCE = Math.toRadians(1);
+
 	private DrivetrainSubsystem drivetrain;
 	private LimelightSubsystem limelight;
+	private final AimMode mode;
 
 	private PIDController tController = new PIDController(0.055, 0, 0.005); // 0.055, 0, 0.005
+	private PIDController headingController = new PIDController(HEADING_KP, 0, HEADING_KD);
+
+	// field relative heading that points the shooter at the hub, from the last
+	// camera frame
+	private double targetHeading = Double.NaN;
+	private long lastFrameId = -1;
+	private final PoseHistory.Sample captureSample = new PoseHistory.Sample();
 
 	private double currentOffset;
 	private double rotationSpeed;
 
+	// aims ahead of the hub while the robot is moving
+	private final ShotSolver shotSolver = new ShotSolver();
+
 	private DoubleSupplier translationXSupplier;
 	private DoubleSupplier translationYSupplier;
 	
@@ -31,8 +71,16 @@ public class AimCommand extends CommandBase {
 	public AimCommand(LimelightSubsystem limelight, DrivetrainSubsystem drivetrain,
 			DoubleSupplier translationXSupplier,
 			DoubleSupplier translationYSupplier) {
+		this(limelight, drivetrain, translationXSupplier, translationYSupplier, AimMode.HEADING);
+	}
+
+	public AimCommand(LimelightSubsystem limelight, DrivetrainSubsystem drivetrain,
+			DoubleSupplier translationXSupplier,
+			DoubleSupplier translationYSupplier,
+			AimMode mode) {
 		this.limelight = limelight;
 		this.drivetrain = drivetrain;
+		this.mode = mode;
 
 		this.translationXSupplier = translationXSupplier;
 		this.translationYSupplier = translationYSupplier;
@@ -41,6 +89,9 @@ public class AimCommand extends CommandBase {
 		tController.setTolerance(3);
 		limelight.setTolerance(3);
 
+		headingController.enableContinuousInput(-Math.PI, Math.PI);
+		headingController.setTolerance(HEADING_TOLERANCE);
+
 		addRequirements(drivetrain);
 	}
 
@@ -49,20 +100,89 @@ public class AimCommand extends CommandBase {
 		this(limelight, drivetrain, () -> 0, () -> 0);
 	}
 
+	@Override
+	public void initialize() {
+		targetHeading = Double.NaN;
+		lastFrameId = -1;
+		headingController.reset();
+		tController.reset();
+	}
+
 	@Override
 	public void execute() {
-		// calculate rotation speed
-		currentOffset = limelight.getXOffset();
-		rotationSpeed = tController.calculate(currentOffset) 
-						+ Math.copySign(staticConst, tController.getPositionError());
-
-		// create drive signal
-		drivetrain.drive(
-			ChassisSpeeds.fromFieldRelativeSpeeds(
-				translationXSupplier.getAsDouble(),
-				translationYSupplier.getAsDouble(),
-				rotationSpeed,
-				drivetrain.getPose().getRotation()));
+		if (mode == AimMode.HEADING) {
+			rotationSpeed = headingRotationSpeed();
+		} else {
+			rotationSpeed = cameraRotationSpeed();
+		}
+
+		// create drive signal, field relative translation turned into the robot
+		// frame without allocating
+		double heading = drivetrain.getPoseHeading();
+		double cos = Math.cos(heading);
+		double sin = Math.sin(heading);
+		double vx = translationXSupplier.getAsDouble();
+		double vy = translationYSupplier.getAsDouble();
+		drivetrain.drive(vx * cos + vy * sin, -vx * sin + vy * cos, rotationSpeed);
+	}
+
+	private double cameraRotationSpeed() {
+		// calculate rotation speed, turning towards where the fused pose says
+		// the hub is when the camera can't see it
+		double vx = drivetrain.getVelocityX();
+		double vy = drivetrain.getVelocityY();
+		LimelightFrame frame = limelight.getLatestFrame();
+		if (frame.hasTarget()) {
+			shotSolver.solveFromVision(limelight.getDistance(frame), frame.getXOffset(), vx, vy);
+		} else {
+			solveFromPose(vx, vy);
+		}
+		currentOffset = shotSolver.getAimOffset();
+		return tController.calculate(currentOffset)
+				+ Math.copySign(staticConst, tController.getPositionError());
+	}
+
+	private double headingRotationSpeed() {
+		double vx = drivetrain.getVelocityX();
+		double vy = drivetrain.getVelocityY();
+		double heading = drivetrain.getPoseHeading();
+
+		// Re-aim once per camera frame, from where the robot was pointing when
+		// the frame was captured. A frame older than the pose history is dropped.
+		LimelightFrame frame = limelight.getLatestFrame();
+		if (frame.getId() != lastFrameId) {
+			lastFrameId = frame.getId();
+			if (frame.hasTarget() && drivetrain.getPoseAt(frame.getCaptureTimestamp(), captureSample)) {
+				shotSolver.solveFromVision(limelight.getDistance(frame), frame.getXOffset(), vx, vy);
+				// aim offset is positive to the right of the shooter, heading
+				// counter-clockwise
+				targetHeading = captureSample.heading - Math.toRadians(shotSolver.getAimOffset());
+			}
+		}
+
+		// Without a recent frame use the fused pose, which is current anyway.
+		if (!frame.hasTarget() || Double.isNaN(targetHeading)) {
+			solveFromPose(vx, vy);
+			targetHeading = heading - Math.toRadians(shotSolver.getAimOffset());
+		}
+
+		currentOffset = -Math.toDegrees(MathUtil.angleModulus(targetHeading - heading));
+		double speed = headingController.calculate(heading, targetHeading);
+		if (!headingController.atSetpoint()) {
+			speed += Math.copySign(staticConst, speed);
+		}
+		return speed;
+	}
+
+	// aim at the hub position given by the fused pose, the solver takes the
+	// hub in robot coordinates and gives the offset from the shooter's direction
+	private void solveFromPose(double vx, double vy) {
+		double dx = Constants.HUB_X - drivetrain.getPoseX();
+		double dy = Constants.HUB_Y - drivetrain.getPoseY();
+		double heading = drivetrain.getPoseHeading();
+		double cos = Math.cos(heading);
+		double sin = Math.sin(heading);
+		shotSolver.solve(dx * cos + dy * sin, -dx * sin + dy * cos, vx, vy);
 	}
 
 	@Override
@@ -2,6 +2,7 @@ package frc.robot.commands;
 
 import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj2.command.CommandBase;
+import frc.robot.subsystems.CargoTrackerSubsystem;
 import frc.robot.subsystems.FeederSubsystem;
 import frc.robot.subsystems.LimelightSubsystem;
 import frc.robot.subsystems.ShooterSubsystem;
@@ -21,6 +22,12 @@ public class AutoShootCommand extends CommandBase {
     private Timer timer = new Timer();
     private double timeOut;
 
+    // Set by untilCargoFired() to end as soon as the cargo are gone, the
+    // timeout is then only a safety cap.
+    private CargoTrackerSubsystem cargoTracker;
+    private int expectedCargo;
+    private int firedAtStart;
+
     // Fixed range version, take the range to target as a parameter
     public AutoShootCommand(ShooterSubsystem shooter, FeederSubsystem feeder,
                             String shootingPose,
@@ -45,9 +52,25 @@ public class AutoShootCommand extends CommandBase {
         this.varyingRange = true;
     }
 
+    /**
+     * End once the expected number of cargo have left the feeder or the
+     * tracker says the robot is empty, or at the timeout, whichever is first.
+     *
+     * @param expectedCargo Number of cargo to shoot
+     * @return This command
+     */
+    public AutoShootCommand untilCargoFired(CargoTrackerSubsystem cargoTracker, int expectedCargo) {
+        this.cargoTracker = cargoTracker;
+        this.expectedCargo = expectedCargo;
+        return this;
+    }
+
     // Called when the command is initially scheduled.
     @Override
     public void initialize() {
+        if (cargoTracker != null) {
+            firedAtStart = cargoTracker.getCargoFired();
+        }
 
         feeder.setFeedMode(FeedMode.PRESHOOT);
         stagingCargo = true;
@@ -116,6 +139,13 @@ public class AutoShootCommand extends CommandBase {
     // Returns true when the command should end.
     @Override
     public boolean isFinished() {
-        return timer.hasElapsed(timeOut);
+        if (timer.hasElapsed(timeOut)) {
+            return true;
+        }
+        if (cargoTracker == null) {
+            return false;
+        }
+
+        return cargoTracker.hasFired(firedAtStart, expectedCargo);
     }
 }
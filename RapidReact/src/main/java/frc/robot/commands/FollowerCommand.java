@@ -5,9 +5,9 @@
 package frc.robot.commands;
 
 import java.util.Optional;
+import java.util.function.Supplier;
 
 
-import org.frcteam2910.common.control.HolonomicMotionProfiledTrajectoryFollower;
 import org.frcteam2910.common.control.PidConstants;
 import org.frcteam2910.common.control.Trajectory;
 import org.frcteam2910.common.util.DrivetrainFeedforwardConstants;
@@ -19,6 +19,8 @@ import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj2.command.CommandBase;
 import frc.robot.subsystems.DrivetrainSubsystem;
 import frc.robot.utils.Conversions;
+import frc.robot.utils.trajectory.SampledTrajectory;
+import frc.robot.utils.trajectory.SampledTrajectoryFollower;
 
 public class FollowerCommand extends CommandBase {
 
@@ -27,17 +29,23 @@ public class FollowerCommand extends CommandBase {
       0.00, // 0.4
       0.2);
 
-  private final HolonomicMotionProfiledTrajectoryFollower follower = new HolonomicMotionProfiledTrajectoryFollower(
+  // time between rows when a 2910 trajectory is converted for following
+  public static final double SAMPLE_PERIOD = 0.005;
+
+  private final SampledTrajectoryFollower follower = new SampledTrajectoryFollower(
       new PidConstants(5, 0.0, 0.0),
       new PidConstants(5, 0.0, 0.0),
       new HolonomicFeedforward(FEEDFORWARD_CONSTANTS));
 
-  private Trajectory m_trajectory;
+  private Supplier<SampledTrajectory> m_trajectory;
 
   private DrivetrainSubsystem m_subsystem;
 
-  /** Creates a new Follower. */
-  public FollowerCommand(DrivetrainSubsystem subsystem, Trajectory trajectory) {
+  /**
+   * Creates a new Follower. The trajectory is only fetched when the command
+   * starts, so it can still be generating when the command is built.
+   */
+  public FollowerCommand(DrivetrainSubsystem subsystem, Supplier<SampledTrajectory> trajectory) {
     // Use addRequirements() here to declare subsystem dependencies.
     addRequirements(subsystem);
     m_subsystem = subsystem;
@@ -45,10 +53,19 @@ public class FollowerCommand extends CommandBase {
 
   }
 
+  /** Creates a new Follower. */
+  public FollowerCommand(DrivetrainSubsystem subsystem, SampledTrajectory trajectory) {
+    this(subsystem, () -> trajectory);
+  }
+
+  public FollowerCommand(DrivetrainSubsystem subsystem, Trajectory trajectory) {
+    this(subsystem, SampledTrajectory.fromTrajectory(trajectory, SAMPLE_PERIOD));
+  }
+
   // Called when the command is initially scheduled.
   @Override
   public void initialize() {
-    follower.follow(m_trajectory);
+    follower.follow(m_trajectory.get());
   }
 
   // Called every time the scheduler runs while the command is scheduled.
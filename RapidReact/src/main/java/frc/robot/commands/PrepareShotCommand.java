@@ -0,0 +1,50 @@
+package frc.robot.commands;
+
+import java.util.function.DoubleSupplier;
+
+import edu.wpi.first.wpilibj2.command.CommandBase;
+import frc.robot.subsystems.LimelightSubsystem;
+import frc.robot.subsystems.ShooterSubsystem;
+
+/**
+ * Spins the flywheel up and moves the hood for a shot at a known range before
+ * the robot gets there, e.g. from the end pose of the trajectory being
+ * followed, and turns the Limelight LED on so the camera has a target as soon
+ * as the robot stops. Runs until interrupted and leaves the shooter running,
+ * so the ShootCommand that follows starts from a wheel that is already at
+ * speed.
+ */
+public class PrepareShotCommand extends CommandBase {
+
+    private final ShooterSubsystem shooter;
+    private final LimelightSubsystem limelight;
+    private final DoubleSupplier range;
+
+    /**
+     * @param range Expected range to the vision target in meters, measured like
+     *              LimelightSubsystem.getDistance. Read when the command starts.
+     */
+    public PrepareShotCommand(ShooterSubsystem shooter, LimelightSubsystem limelight, DoubleSupplier range) {
+        this.shooter = shooter;
+        this.limelight = limelight;
+        this.range = range;
+
+        addRequirements(shooter);
+    }
+
+    public PrepareShotCommand(ShooterSubsystem shooter, LimelightSubsystem limelight, double range) {
+        this(shooter, limelight, () -> range);
+    }
+
+    @Override
+    public void initialize() {
+        limelight.setLEDMode(limelight.LED_ON);
+        shooter.shoot();
+        shooter.setRange(range.getAsDouble());
+    }
+
+    @Override
+    public boolean isFinished() {
+        return false;
+    }
+}
@@ -4,10 +4,14 @@ import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
 
 import edu.wpi.first.wpilibj2.command.CommandBase;
+import frc.robot.subsystems.CargoTrackerSubsystem;
+import frc.robot.subsystems.DrivetrainSubsystem;
 import frc.robot.subsystems.FeederSubsystem;
 import frc.robot.subsystems.LimelightSubsystem;
 import frc.robot.subsystems.ShooterSubsystem;
 import frc.robot.subsystems.FeederSubsystem.FeedMode;
+import frc.robot.utils.LimelightFrame;
+import frc.robot.utils.ShotSolver;
 
 public class ShootCommand extends CommandBase {
 
@@ -15,6 +19,10 @@ public class ShootCommand extends CommandBase {
     private FeederSubsystem feeder;
     private LimelightSubsystem limelight;
 
+    // set to range ahead of the hub while moving, null to shoot from a standstill
+    private DrivetrainSubsystem drivetrain;
+    private final ShotSolver shotSolver = new ShotSolver();
+
     private Consumer<Boolean> shootReadyNotifier;
     private boolean manualShoot;
 
@@ -26,8 +34,23 @@ public class ShootCommand extends CommandBase {
 
     private boolean stagingCargo;
 
+    // Seconds from starting the feeder to the cargo reaching the flywheel, the
+    // feeder starts this long before the shooter is predicted to be ready.
+    private static final double FEED_LEAD_TIME = 0.1;
+
+    // With a varying range, hold fire until the Limelight distance is known at
+    // least this well (standard deviation in meters).
+    private static final double MAX_RANGE_STDDEV = 0.1;
+
+    // Set by untilCargoFired() to end once the cargo are gone, null to run
+    // until interrupted.
+    private CargoTrackerSubsystem cargoTracker;
+    private int expectedCargo;
+    private int firedAtStart;
+
     private boolean atSpeed;
     private boolean aligned;
+    private boolean rangeKnown;
     private boolean trigger;
 
     // fixed range & manual shoot
@@ -60,6 +83,16 @@ public class ShootCommand extends CommandBase {
         this.varyingRange = true;
     }
 
+    // varying range & manual shoot, compensating for robot motion
+    public ShootCommand(ShooterSubsystem shooter, FeederSubsystem feeder, LimelightSubsystem limelight,
+                        DrivetrainSubsystem drivetrain,
+                        Consumer<Boolean> shootReadyNotifier, BooleanSupplier shootTrigger,
+                        BooleanSupplier forceShootTrigger) {
+        this(shooter, feeder, limelight, shootReadyNotifier, shootTrigger, forceShootTrigger);
+
+        this.drivetrain = drivetrain;
+    }
+
     // varying range & auto shoot
     public ShootCommand(ShooterSubsystem shooter, FeederSubsystem feeder, LimelightSubsystem limelight,
                         BooleanSupplier forceShootTrigger) {
@@ -70,11 +103,43 @@ public class ShootCommand extends CommandBase {
         this.manualShoot = false;
     }
 
+    // varying range & auto shoot, compensating for robot motion
+    public ShootCommand(ShooterSubsystem shooter, FeederSubsystem feeder, LimelightSubsystem limelight,
+                        DrivetrainSubsystem drivetrain, BooleanSupplier forceShootTrigger) {
+        this(shooter, feeder, limelight, forceShootTrigger);
+
+        this.drivetrain = drivetrain;
+    }
+
+    /**
+     * End the command once the expected number of cargo have left the feeder
+     * or the tracker says the robot is empty, instead of running until
+     * interrupted. Keep a timeout on the command as a safety cap.
+     *
+     * @param expectedCargo Number of cargo to shoot
+     * @return This command
+     */
+    public ShootCommand untilCargoFired(CargoTrackerSubsystem cargoTracker, int expectedCargo) {
+        this.cargoTracker = cargoTracker;
+        this.expectedCargo = expectedCargo;
+        return this;
+    }
+
     @Override
     public void initialize() {
-        // send the cargo up to feeder's exit
-        feeder.setFeedMode(FeedMode.PRESHOOT);
-        stagingCargo = true;
+        if (cargoTracker != null) {
+            firedAtStart = cargoTracker.getCargoFired();
+        }
+
+        // send the cargo up to feeder's exit, unless it was staged in advance
+        // (e.g. while driving to the shooting spot)
+        if (feeder.isCargoStaged()) {
+            stagingCargo = false;
+        }
+        else {
+            feeder.setFeedMode(FeedMode.PRESHOOT);
+            stagingCargo = true;
+        }
 
         // initialize rumble
         if (manualShoot) {
@@ -96,7 +161,14 @@ public class ShootCommand extends CommandBase {
 
         // update range with limelight
         if (varyingRange) {
-            shooter.setRange(limelight.getDistance());
+            if (drivetrain != null) {
+                LimelightFrame frame = limelight.getLatestFrame();
+                shotSolver.solveFromVision(limelight.getAverageDistance(), frame.getXOffset(),
+                        drivetrain.getVelocityX(), drivetrain.getVelocityY());
+                shooter.setRange(shotSolver.getRange());
+            } else {
+                shooter.setRange(limelight.getAverageDistance());
+            }
         }
 
         // check if cargo has arrived at feeder's exit
@@ -110,14 +182,24 @@ public class ShootCommand extends CommandBase {
         }
 
         // check if shooter is ready
-        if (varyingRange) {
+        if (varyingRange && drivetrain != null) {
+            aligned = limelight.aligned(shotSolver.getAimOffset());
+        }
+        else if (varyingRange) {
             aligned = limelight.aligned();
         }
         else {
             aligned = true; // do not check for alignment if fixed range
         }
 
-        atSpeed = shooter.ready();
+        atSpeed = shooter.getTimeToReady() <= FEED_LEAD_TIME;
+
+        if (varyingRange) {
+            rangeKnown = limelight.getDistanceStdDev() <= MAX_RANGE_STDDEV;
+        }
+        else {
+            rangeKnown = true;
+        }
 
         if (manualShoot) {
             trigger = shootTrigger.getAsBoolean();
@@ -136,7 +218,7 @@ public class ShootCommand extends CommandBase {
         shooter.aligned = aligned;
 
         // shoot
-        if (trigger && atSpeed && aligned) { 
+        if (trigger && atSpeed && aligned && rangeKnown) { 
             feeder.setFeedMode(FeedMode.CONTINUOUS);
         }
         else if (forceShootTrigger.getAsBoolean()) {
@@ -147,6 +229,15 @@ public class ShootCommand extends CommandBase {
         }
     }
 
+    @Override
+    public boolean isFinished() {
+        if (cargoTracker == null) {
+            return false;
+        }
+
+        return cargoTracker.hasFired(firedAtStart, expectedCargo);
+    }
+
     @Override
     public void end(boolean interrupted) {
         // stop feeder
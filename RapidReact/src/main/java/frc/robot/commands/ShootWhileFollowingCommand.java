@@ -0,0 +1,182 @@
+package frc.robot.commands;
+
+import java.util.function.Supplier;
+
+import edu.wpi.first.wpilibj.Timer;
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+import edu.wpi.first.wpilibj2.command.CommandBase;
+import frc.robot.Constants;
+import frc.robot.subsystems.CargoTrackerSubsystem;
+import frc.robot.subsystems.DrivetrainSubsystem;
+import frc.robot.subsystems.FeederSubsystem;
+import frc.robot.subsystems.ShooterSubsystem;
+import frc.robot.subsystems.FeederSubsystem.FeedMode;
+import frc.robot.utils.ShotSolver;
+import frc.robot.utils.trajectory.SampledTrajectory;
+
+/**
+ * Shoots cargo while a FollowerCommand drives the same trajectory, started at
+ * the same time as the follower (e.g. in a ParallelDeadlineGroup with it).
+ *
+ * The drivetrain belongs to the follower, so the robot can't turn to aim.
+ * Instead the shot is predicted from where the trajectory says the robot will
+ * be when the cargo leaves: the fused pose now, moved on by what the
+ * trajectory does over the feed lead time, with the trajectory's velocity and
+ * heading at that time. The flywheel and hood follow the motion compensated
+ * range continuously and one cargo at a time is released when the predicted
+ * miss at the hub is within tolerance and the flywheel is ready.
+ *
+ * Ends once the expected cargo have been fired or the robot is empty. Cargo
+ * still on board when the trajectory ends are left staged for a stationary
+ * ShootCommand.
+ */
+public class ShootWhileFollowingCommand extends CommandBase {
+
+    // Seconds from starting the feeder to the cargo reaching the flywheel,
+    // the shot is predicted for this far along the trajectory.
+    private static final double FEED_LEAD_TIME = 0.1;
+
+    // Largest predicted miss sideways at the hub center (meters) to shoot at.
+    // The upper hub opening has a radius of about 0.6 m.
+    private static final double SHOT_TOLERANCE = 0.2;
+
+    private final ShooterSubsystem shooter;
+    private final FeederSubsystem feeder;
+    private final DrivetrainSubsystem drivetrain;
+    private final CargoTrackerSubsystem cargoTracker;
+    private final Supplier<SampledTrajectory> trajectorySupplier;
+    private final int expectedCargo;
+
+    private SampledTrajectory trajectory;
+    private double reservedTime = 0;
+
+    private final Timer timer = new Timer();
+    private final ShotSolver shotSolver = new ShotSolver();
+    private final SampledTrajectory.State now = new SampledTrajectory.State();
+    private final SampledTrajectory.State release = new SampledTrajectory.State();
+
+    private int firedAtStart;
+    private int lastFired;
+    private boolean staging;
+    private double shotError;
+
+    /**
+     * @param trajectory    Trajectory the follower is driving, fetched when the
+     *                      command starts
+     * @param expectedCargo Number of cargo to shoot
+     */
+    public ShootWhileFollowingCommand(ShooterSubsystem shooter, FeederSubsystem feeder,
+            DrivetrainSubsystem drivetrain, CargoTrackerSubsystem cargoTracker,
+            Supplier<SampledTrajectory> trajectory, int expectedCargo) {
+        this.shooter = shooter;
+        this.feeder = feeder;
+        this.drivetrain = drivetrain;
+        this.cargoTracker = cargoTracker;
+        this.trajectorySupplier = trajectory;
+        this.expectedCargo = expectedCargo;
+
+        addRequirements(shooter, feeder);
+    }
+
+    /**
+     * Give up shooting this long before the end of the trajectory, leaving the
+     * rest of it for something else, e.g. intaking.
+     *
+     * @return This command
+     */
+    public ShootWhileFollowingCommand stopBeforeEnd(double time) {
+        this.reservedTime = time;
+        return this;
+    }
+
+    @Override
+    public void initialize() {
+        trajectory = trajectorySupplier.get();
+
+        timer.reset();
+        timer.start();
+
+        firedAtStart = cargoTracker.getCargoFired();
+        lastFired = firedAtStart;
+        staging = false;
+
+        shooter.shoot();
+    }
+
+    @Override
+    public void execute() {
+        predictShot(timer.get());
+        shooter.setRange(shotSolver.getRange());
+
+        // each cargo gets one try at staging, so a miscount can't keep the
+        // feeder running
+        int fired = cargoTracker.getCargoFired();
+        if (fired != lastFired) {
+            lastFired = fired;
+            staging = false;
+        }
+
+        if (!feeder.isIdle()) {
+            return;
+        }
+
+        if (feeder.isCargoStaged()) {
+            boolean onTarget = Math.abs(shotError) <= SHOT_TOLERANCE;
+            boolean atSpeed = shooter.getTimeToReady() <= FEED_LEAD_TIME;
+            if (onTarget && atSpeed) {
+                feeder.setFeedMode(FeedMode.SHOOT_ONE);
+            }
+        } else if (!staging && cargoTracker.getFeederCargoCount() > 0) {
+            feeder.setFeedMode(FeedMode.PRESHOOT);
+            staging = true;
+        }
+    }
+
+    /**
+     * Solve the shot for the robot's state when a cargo fed now would leave the
+     * shooter.
+     */
+    private void predictShot(double time) {
+        trajectory.calculate(time, now);
+        trajectory.calculate(time + FEED_LEAD_TIME, release);
+
+        // follow the trajectory from where the robot actually is, so tracking
+        // error is not mistaken for aim
+        double x = drivetrain.getPoseX() + release.x - now.x;
+        double y = drivetrain.getPoseY() + release.y - now.y;
+        double rotation = drivetrain.getPoseHeading() + release.rotation - now.rotation;
+
+        double cos = Math.cos(rotation);
+        double sin = Math.sin(rotation);
+
+        double hubX = Constants.HUB_X - x;
+        double hubY = Constants.HUB_Y - y;
+        double vx = release.velocity * Math.cos(release.heading);
+        double vy = release.velocity * Math.sin(release.heading);
+
+        shotSolver.solve(hubX * cos + hubY * sin, -hubX * sin + hubY * cos,
+                vx * cos + vy * sin, -vx * sin + vy * cos);
+
+        // sideways miss at the hub center from shooting along the shooter's
+        // (rear facing) axis, the aim offset is relative to it
+        double hubDistance = shotSolver.getRange() + Constants.HUB_RADIUS;
+        shotError = hubDistance * Math.sin(Math.toRadians(shotSolver.getAimOffset()));
+
+        SmartDashboard.putNumber("Moving Shot Error", shotError);
+    }
+
+    @Override
+    public boolean isFinished() {
+        if (timer.get() >= trajectory.getDuration() - reservedTime) {
+            return true;
+        }
+
+        return cargoTracker.hasFired(firedAtStart, expectedCargo);
+    }
+
+    @Override
+    public void end(boolean interrupted) {
+        timer.stop();
+        feeder.setFeedMode(FeedMode.STOPPED);
+    }
+}
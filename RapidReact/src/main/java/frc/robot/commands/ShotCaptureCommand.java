@@ -0,0 +1,194 @@
+package frc.robot.commands;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntSupplier;
+
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+import edu.wpi.first.wpilibj2.command.CommandBase;
+import frc.robot.subsystems.FeederSubsystem;
+import frc.robot.subsystems.LimelightSubsystem;
+import frc.robot.subsystems.ShooterSubsystem;
+import frc.robot.subsystems.FeederSubsystem.FeedMode;
+import frc.robot.utils.FiringTableRanger;
+import frc.robot.utils.LimelightFrame;
+import frc.robot.utils.ShotDataset;
+
+/**
+ * Shot map capture session. The operator sets flywheel speed and hood angle by
+ * hand with the POV (up/down raise/lower the hood, right/left increase/decrease
+ * speed), fires, and marks each shot that went in. Marked shots are appended to
+ * the ShotDataset on the RIO with the Limelight reading and the measured
+ * flywheel speed and hood angle from the moment the shot was fired.
+ *
+ * Regenerating writes a firing table averaged from the whole dataset to the
+ * ranger's tuned table in the operating directory, which FiringTableRanger
+ * picks up straight away and keeps using over the deployed table across
+ * deploys. Copy it into src/main/deploy to make it the default.
+ */
+public class ShotCaptureCommand extends CommandBase {
+
+    // shots closer together than this are averaged into one table row
+    private static final double TABLE_BIN_WIDTH = 0.25;
+
+    private final ShooterSubsystem shooter;
+    private final FeederSubsystem feeder;
+    private final LimelightSubsystem limelight;
+    private final ShotDataset dataset;
+    private final FiringTableRanger firingTable;
+
+    private final IntSupplier pov;
+    private final BooleanSupplier fireTrigger;
+    private final BooleanSupplier madeTrigger;
+    private final BooleanSupplier regenerateTrigger;
+
+    // state at the last shot fired, recorded when it is marked as made
+    private boolean haveShot;
+    private double shotDistance;
+    private double shotTy;
+    private double shotTx;
+    private double shotSpeed;
+    private double shotAngle;
+
+    private int lastPov;
+    private boolean wasFiring;
+    private boolean wasMade;
+    private boolean wasRegenerate;
+    private int capturedCount;
+
+    public ShotCaptureCommand(ShooterSubsystem shooter, FeederSubsystem feeder, LimelightSubsystem limelight,
+                              ShotDataset dataset, FiringTableRanger firingTable, IntSupplier pov,
+                              BooleanSupplier fireTrigger, BooleanSupplier madeTrigger,
+                              BooleanSupplier regenerateTrigger) {
+        this.shooter = shooter;
+        this.feeder = feeder;
+        this.limelight = limelight;
+        this.dataset = dataset;
+        this.firingTable = firingTable;
+        this.pov = pov;
+        this.fireTrigger = fireTrigger;
+        this.madeTrigger = madeTrigger;
+        this.regenerateTrigger = regenerateTrigger;
+
+        addRequirements(shooter, feeder);
+    }
+
+    @Override
+    public void initialize() {
+        limelight.setLEDMode(limelight.LED_ON);
+        shooter.shoot();
+        feeder.setFeedMode(FeedMode.PRESHOOT);
+
+        haveShot = false;
+        lastPov = pov.getAsInt();
+        wasFiring = false;
+        wasMade = false;
+        wasRegenerate = false;
+        capturedCount = 0;
+        SmartDashboard.putString("Shot Capture", "Capturing to " + dataset.getFile());
+    }
+
+    @Override
+    public void execute() {
+        int currentPov = pov.getAsInt();
+        if (currentPov != lastPov) {
+            adjustShooter(currentPov);
+        }
+        lastPov = currentPov;
+
+        boolean firing = fireTrigger.getAsBoolean();
+        boolean made = madeTrigger.getAsBoolean();
+        boolean regenerate = regenerateTrigger.getAsBoolean();
+
+        if (firing && !wasFiring) {
+            recordShot();
+        }
+        if (firing) {
+            feeder.setFeedMode(FeedMode.CONTINUOUS);
+        } else if (wasFiring) {
+            feeder.setFeedMode(FeedMode.PRESHOOT);
+        }
+
+        if (made && !wasMade) {
+            saveShot();
+        }
+        if (regenerate && !wasRegenerate) {
+            regenerateTable();
+        }
+
+        wasFiring = firing;
+        wasMade = made;
+        wasRegenerate = regenerate;
+    }
+
+    @Override
+    public void end(boolean interrupted) {
+        feeder.setFeedMode(FeedMode.STOPPED);
+        limelight.setLEDMode(limelight.LED_OFF);
+    }
+
+    private void adjustShooter(int pov) {
+        switch (pov) {
+            case 0:
+                shooter.raiseHood();
+                break;
+            case 180:
+                shooter.lowerHood();
+                break;
+            case 90:
+                shooter.increaseSpeed();
+                break;
+            case 270:
+                shooter.decreaseSpeed();
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void recordShot() {
+        LimelightFrame frame = limelight.getLatestFrame();
+        haveShot = frame.hasTarget();
+        shotDistance = limelight.getDistance(frame);
+        shotTy = frame.getYOffset();
+        shotTx = frame.getXOffset();
+        shotSpeed = shooter.getCurrentSpeed();
+        shotAngle = shooter.getCurrentAngle();
+    }
+
+    private void saveShot() {
+        if (!haveShot) {
+            SmartDashboard.putString("Shot Capture", "No target seen when the last shot was fired, not saved");
+            return;
+        }
+
+        try {
+            dataset.append(shotDistance, shotTy, shotTx, shotSpeed, shotAngle);
+            capturedCount++;
+            haveShot = false; // each shot only once
+            SmartDashboard.putString("Shot Capture", String.format("Saved shot %d: %.2fm %.0f RPM %.1f deg",
+                    capturedCount, shotDistance, shotSpeed, shotAngle));
+        } catch (IOException e) {
+            SmartDashboard.putString("Shot Capture", "Could not save shot: " + e.getMessage());
+        }
+    }
+
+    private void regenerateTable() {
+        try {
+            List<double[]> shots = dataset.read();
+            double[][] table = ShotDataset.buildFiringTable(shots, TABLE_BIN_WIDTH);
+            if (table.length < 2) {
+                SmartDashboard.putString("Shot Capture", "Need shots from at least two distances");
+                return;
+            }
+
+            FiringTableRanger.write(firingTable.getTunedFile(), table,
+                    "Generated from " + shots.size() + " shots in " + dataset.getFile().getName());
+            SmartDashboard.putString("Shot Capture", "Wrote " + table.length + " rows to "
+                    + firingTable.getTunedFile());
+        } catch (IOException e) {
+            SmartDashboard.putString("Shot Capture", "Could not regenerate table: " + e.getMessage());
+        }
+    }
+}
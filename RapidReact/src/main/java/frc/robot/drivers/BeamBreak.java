@@ -0,0 +1,90 @@
+package frc.robot.drivers;
+
+import java.util.function.DoubleSupplier;
+
+import edu.wpi.first.wpilibj.AsynchronousInterrupt;
+import edu.wpi.first.wpilibj.DigitalInput;
+import edu.wpi.first.wpilibj.Timer;
+import frc.robot.utils.BeamBreakQueue;
+
+/**
+ * Beam break sensor whose edges are caught by an interrupt instead of being
+ * sampled once per loop, so a ball that passes the beam between two loops is
+ * still seen. Each edge is timestamped by the FPGA and recorded together with
+ * the feed encoder position at that moment.
+ *
+ * The encoder is only read when the interrupt thread gets to run, a little
+ * after the edge, so the position is wound back to the edge time using the
+ * encoder velocity.
+ */
+public class BeamBreak {
+
+    private static final int QUEUE_SIZE = 32;
+
+    private final DigitalInput input;
+    private final AsynchronousInterrupt interrupt;
+    private final BeamBreakQueue events = new BeamBreakQueue(QUEUE_SIZE);
+    private final DoubleSupplier position;
+    private final DoubleSupplier velocity;
+
+    /**
+     * @param dio      DIO channel of the sensor, reads false while the beam is broken
+     * @param position Feed encoder position in rotations
+     * @param velocity Feed encoder velocity in RPM
+     */
+    public BeamBreak(int dio, DoubleSupplier position, DoubleSupplier velocity) {
+        this.position = position;
+        this.velocity = velocity;
+
+        input = new DigitalInput(dio);
+        interrupt = new AsynchronousInterrupt(input, this::onEdge);
+        interrupt.setInterruptEdges(true, true);
+        interrupt.enable();
+    }
+
+    /**
+     * Runs on the interrupt thread. The sensor is active low, so a falling edge
+     * is the beam being broken and a rising edge it clearing. If both edges
+     * happened since the last callback they are queued in the order they
+     * happened.
+     */
+    private void onEdge(Boolean rising, Boolean falling) {
+        double now = Timer.getFPGATimestamp();
+        double currentPosition = position.getAsDouble();
+        double revPerSecond = velocity.getAsDouble() / 60.0;
+
+        double risingTime = rising ? interrupt.getRisingTimestamp() : Double.NaN;
+        double fallingTime = falling ? interrupt.getFallingTimestamp() : Double.NaN;
+
+        if (falling && (!rising || fallingTime <= risingTime)) {
+            events.offer(fallingTime, currentPosition - revPerSecond * (now - fallingTime), true);
+            fallingTime = Double.NaN;
+        }
+        if (rising) {
+            events.offer(risingTime, currentPosition - revPerSecond * (now - risingTime), false);
+        }
+        if (!Double.isNaN(fallingTime)) {
+            events.offer(fallingTime, currentPosition - revPerSecond * (now - fallingTime), true);
+        }
+    }
+
+    /**
+     * @return True if the beam is broken right now
+     */
+    public boolean isBlocked() {
+        return !input.get();
+    }
+
+    /**
+     * @return Edges not yet consumed, in the order they happened. Only one
+     *         thread may consume them.
+     */
+    public BeamBreakQueue getEvents() {
+        return events;
+    }
+
+    public void close() {
+        interrupt.close();
+        input.close();
+    }
+}
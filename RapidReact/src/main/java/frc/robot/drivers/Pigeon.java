@@ -4,6 +4,8 @@
 
 package frc.robot.drivers;
 
+import java.util.concurrent.locks.StampedLock;
+
 import com.ctre.phoenix.sensors.PigeonIMU;
 import com.ctre.phoenix.sensors.PigeonIMU.CalibrationMode;
 
@@ -11,27 +13,92 @@ import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj.interfaces.Accelerometer;
 import edu.wpi.first.wpilibj.interfaces.Gyro;
 
+/**
+ * Pigeon IMU sampled once per cycle. update() reads every quantity from the
+ * device into a snapshot, the getters only return values from that snapshot so
+ * reading them any number of times costs no CAN traffic and every value
+ * describes the same instant.
+ *
+ * update() may run on a different thread (e.g. the odometry notifier) than the
+ * readers, the snapshot is guarded by a StampedLock the same way as the
+ * drivetrain odometry.
+ */
 public class Pigeon implements Gyro, Accelerometer {
 
     PigeonIMU pigeon;
-    
-    // Gyro variables
-    double angle;
-    double timeStamp;
-    double[] lastAngleTime = new double[2];
-    double[] currentAngleTime = new double[2];
-    double rotateRate;
 
+    // Scratch buffers for the device reads, only used by update().
+    private final double[] rawGyro = new double[3];
+    private final double[] tiltAngle = new double[3];
+
+    // Snapshot of the last update, indexed by the SNAPSHOT_ constants and
+    // guarded by snapshotLock.
+    private static final int SNAPSHOT_ANGLE = 0; // fused heading in degrees
+    private static final int SNAPSHOT_RATE = 1; // yaw rate in degrees/second
+    private static final int SNAPSHOT_ACCEL_X = 2; // in g
+    private static final int SNAPSHOT_ACCEL_Y = 3;
+    private static final int SNAPSHOT_ACCEL_Z = 4;
+    private static final int SNAPSHOT_TIMESTAMP = 5; // FPGA time in seconds
+    private final StampedLock snapshotLock = new StampedLock();
+    private final double[] snapshot = new double[6];
+
+    // Heading resets are applied by update() as an offset to the device's
+    // fused heading, so a reset from another thread can't be overwritten by an
+    // update that read the device before it. Both guarded by snapshotLock.
+    private double headingOffset = 0;
+    private double pendingHeading = Double.NaN;
+        
     // Accelerometer variables
     Range accelRange;
-    double[] tiltAngle = new double[3];
-    double accelX;
-    double accelY;
-    double accelZ;
-        
+
     // create new pigeon
     public Pigeon(int id) {
         pigeon = new PigeonIMU(id);
+        update();
+    }
+
+    /**
+     * Read the IMU into the snapshot. Call once per cycle before reading any
+     * values.
+     *
+     * The Phoenix 5 PigeonIMU API does not report when a status frame was
+     * received, so the snapshot is stamped with the time it was read.
+     */
+    public void update() {
+        double heading = pigeon.getFusedHeading();
+        pigeon.getRawGyro(rawGyro);
+        pigeon.getAccelerometerAngles(tiltAngle);
+        double now = Timer.getFPGATimestamp();
+
+        long stamp = snapshotLock.writeLock();
+        try {
+            if (!Double.isNaN(pendingHeading)) {
+                headingOffset = pendingHeading - heading;
+                pendingHeading = Double.NaN;
+            }
+            snapshot[SNAPSHOT_ANGLE] = heading + headingOffset;
+            snapshot[SNAPSHOT_RATE] = rawGyro[2];
+            snapshot[SNAPSHOT_ACCEL_X] = Math.sin(Math.toRadians(tiltAngle[0]));
+            snapshot[SNAPSHOT_ACCEL_Y] = Math.sin(Math.toRadians(tiltAngle[1]));
+            snapshot[SNAPSHOT_ACCEL_Z] = Math.sin(Math.toRadians(tiltAngle[2]));
+            snapshot[SNAPSHOT_TIMESTAMP] = now;
+        } finally {
+            snapshotLock.unlockWrite(stamp);
+        }
+    }
+
+    private double read(int index) {
+        long stamp = snapshotLock.tryOptimisticRead();
+        double value = snapshot[index];
+        if (!snapshotLock.validate(stamp)) {
+            stamp = snapshotLock.readLock();
+            try {
+                value = snapshot[index];
+            } finally {
+                snapshotLock.unlockRead(stamp);
+            }
+        }
+        return value;
     }
 
     // enter boot-calibration (gyro and temp), can also be done in phoenix tuner
@@ -41,36 +108,48 @@ public class Pigeon implements Gyro, Accelerometer {
         
     }
 
-    // get gyro
+    // gyro heading in degrees, counter-clockwise positive
     @Override
     public double getAngle() {
-        angle = pigeon.getFusedHeading();
-        return angle;
+        return read(SNAPSHOT_ANGLE);
     }
 
     // reset gyro
     @Override
     public void reset() {
-        pigeon.setFusedHeading(180);
+        setHeading(180);
     }
 
     public void invert() {
-        pigeon.setFusedHeading(0);
+        setHeading(0);
+    }
+
+    /**
+     * Queue a new heading for the next update(), which turns it into an offset
+     * against the heading it reads from the device.
+     */
+    private void setHeading(double heading) {
+        long stamp = snapshotLock.writeLock();
+        try {
+            pendingHeading = heading;
+            // Readers see the new heading without waiting for the next update.
+            snapshot[SNAPSHOT_ANGLE] = heading;
+        } finally {
+            snapshotLock.unlockWrite(stamp);
+        }
     }
 
-    // gyro rate in degree/s
-    // call in drivebase periodic to get continuous update
-    // assume constant rotation speed
+    // yaw rate in degree/s, measured by the gyro
     @Override
     public double getRate() {
-        timeStamp = Timer.getFPGATimestamp();
-        angle = getAngle();
-        currentAngleTime[0] = angle;
-        currentAngleTime[1] = timeStamp;
-
-        rotateRate = (currentAngleTime[0] - lastAngleTime[0]) / (currentAngleTime[1] - lastAngleTime[1]);
+        return read(SNAPSHOT_RATE);
+    }
 
-        return rotateRate;
+    /**
+     * @return FPGA time in seconds of the snapshot the getters return
+     */
+    public double getTimestamp() {
+        return read(SNAPSHOT_TIMESTAMP);
     }
 
     // set accelerometer range (2g, 16 bytes for pigeon)
@@ -81,28 +160,22 @@ public class Pigeon implements Gyro, Accelerometer {
     // x acceleration in g
     @Override
     public double getX() {
-        pigeon.getAccelerometerAngles(tiltAngle);
-        accelX = Math.sin(Math.toRadians(tiltAngle[0]));
-        return accelX;
+        return read(SNAPSHOT_ACCEL_X);
     }
 
     // y acceleration in g
     @Override
     public double getY() {
-        pigeon.getAccelerometerAngles(tiltAngle);
-        accelY = Math.sin(Math.toRadians(tiltAngle[1]));
-        return accelY;
+        return read(SNAPSHOT_ACCEL_Y);
     }
 
     // z acceleration in g
     @Override
     public double getZ() {
-        pigeon.getAccelerometerAngles(tiltAngle);
-        accelZ = Math.sin(Math.toRadians(tiltAngle[2]));
-        return accelZ;
+        return read(SNAPSHOT_ACCEL_Z);
     }
 
     // specify exception
     @Override
     public void close() throws Exception {} 
-}
\ No newline at end of file
+}
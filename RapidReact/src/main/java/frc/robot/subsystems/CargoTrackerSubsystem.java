@@ -0,0 +1,368 @@
+package frc.robot.subsystems;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.wpi.first.wpilibj.Timer;
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+import edu.wpi.first.wpilibj2.command.SubsystemBase;
+import frc.robot.subsystems.FeederSubsystem.Beam;
+import frc.robot.utils.BeamBreakQueue;
+
+/**
+ * Keeps track of how many cargo are on board and where each one is, so
+ * commands can react to the robot actually being empty instead of waiting out
+ * a timeout.
+ *
+ * Cargo move intake -> feeder -> staged at the feeder exit -> shooter:
+ *
+ *   - the intake motor current rising while it is spinning in means a cargo
+ *     has been picked up; if it does not reach the feeder soon it is assumed
+ *     to have been lost
+ *   - the feeder entry beam breaking moves a cargo into the feeder, after which
+ *     its progress is the feed encoder travel since that edge
+ *   - the exit beam breaking stages it, the exit beam clearing while feeding
+ *     forward fires it
+ *   - a flywheel speed drop confirms the shot, or fires the staged cargo if
+ *     the exit edge was somehow missed
+ *
+ * Running the feeder backwards moves cargo back the same way. Owns no
+ * hardware, it only listens to the other subsystems.
+ */
+public class CargoTrackerSubsystem extends SubsystemBase {
+
+    public enum CargoStage {
+        INTAKE,
+        FEEDER,
+        STAGED
+    }
+
+    public static class Cargo {
+        private CargoStage stage;
+        private double entryPosition; // feed encoder position at the entry edge
+        private double stageTime; // FPGA time the current stage was entered
+
+        private Cargo(CargoStage stage, double entryPosition) {
+            this.stage = stage;
+            this.entryPosition = entryPosition;
+            this.stageTime = Timer.getFPGATimestamp();
+        }
+
+        public CargoStage getStage() {
+            return stage;
+        }
+    }
+
+    // Intake current above this while spinning in, for this long, is a cargo.
+    private static final double INTAKE_CARGO_CURRENT = 25; // amps
+    private static final double INTAKE_CARGO_TIME = 0.06; // seconds
+    // Ignore the current spike when the intake motor starts.
+    private static final double INTAKE_STARTUP_TIME = 0.25; // seconds
+    // A picked up cargo that has not reached the feeder by now was lost.
+    private static final double INTAKE_TIMEOUT = 2.0; // seconds
+    // A flywheel drop within this time of a cargo leaving the feeder is its shot.
+    private static final double SHOT_CONFIRM_TIME = 0.3; // seconds
+    // Time for the last cargo to get from the feeder exit through the flywheel.
+    private static final double SHOT_CLEAR_TIME = 0.1; // seconds
+
+    private final FeederSubsystem feeder;
+    private final IntakeSubsystem intake;
+    private final ShooterSubsystem shooter;
+
+    // nearest the shooter first
+    private final List<Cargo> cargo = new ArrayList<Cargo>();
+    private final List<Runnable> firedListeners = new ArrayList<Runnable>();
+
+    private int cargoFired = 0;
+    private int shotsConfirmed = 0;
+    private double lastFiredTime = Double.NaN;
+    private int lastShooterShotCount;
+
+    private double intakeStartTime = Double.NaN;
+    private double intakeCurrentStartTime = Double.NaN;
+
+    /**
+     * @param intake May be null, cargo are then only seen by the feeder beams
+     */
+    public CargoTrackerSubsystem(FeederSubsystem feeder, IntakeSubsystem intake, ShooterSubsystem shooter) {
+        this.feeder = feeder;
+        this.intake = intake;
+        this.shooter = shooter;
+
+        lastShooterShotCount = shooter.getShotCount();
+        feeder.addBeamListener(this::beamChanged);
+        resetFromSensors();
+    }
+
+    @Override
+    public void periodic() {
+        double now = Timer.getFPGATimestamp();
+
+        if (intake != null) {
+            updateIntake(now);
+        }
+
+        // drop cargo that were picked up but never made it to the feeder
+        for (int i = cargo.size() - 1; i >= 0; i--) {
+            Cargo c = cargo.get(i);
+            if (c.stage == CargoStage.INTAKE && now - c.stageTime > INTAKE_TIMEOUT) {
+                cargo.remove(i);
+            }
+        }
+
+        int shooterShots = shooter.getShotCount();
+        if (shooterShots != lastShooterShotCount) {
+            lastShooterShotCount = shooterShots;
+            if (!Double.isNaN(lastFiredTime) && now - lastFiredTime < SHOT_CONFIRM_TIME) {
+                shotsConfirmed++;
+            } else if (!cargo.isEmpty() && cargo.get(0).stage == CargoStage.STAGED) {
+                // the exit edge was missed, but the wheel saw the shot
+                fire(now);
+                shotsConfirmed++;
+            }
+        }
+
+        SmartDashboard.putNumber("Cargo Count", getCargoCount());
+        SmartDashboard.putNumber("Cargo Fired", cargoFired);
+        SmartDashboard.putNumber("Shots Confirmed", shotsConfirmed);
+        SmartDashboard.putString("Cargo", describe());
+    }
+
+    private void updateIntake(double now) {
+        if (!intake.isSpinningIn()) {
+            intakeStartTime = Double.NaN;
+            intakeCurrentStartTime = Double.NaN;
+            return;
+        }
+        if (Double.isNaN(intakeStartTime)) {
+            intakeStartTime = now;
+        }
+        if (now - intakeStartTime < INTAKE_STARTUP_TIME || intake.getMotorCurrent() < INTAKE_CARGO_CURRENT) {
+            intakeCurrentStartTime = Double.NaN;
+            return;
+        }
+
+        if (Double.isNaN(intakeCurrentStartTime)) {
+            intakeCurrentStartTime = now;
+        } else if (now - intakeCurrentStartTime >= INTAKE_CARGO_TIME && findLast(CargoStage.INTAKE) < 0) {
+            cargo.add(new Cargo(CargoStage.INTAKE, 0));
+        }
+    }
+
+    /**
+     * Feeder beam edge, called from the feeder's periodic in the order the edges
+     * happened.
+     */
+    private void beamChanged(Beam beam, BeamBreakQueue.Event event, double velocity) {
+        boolean forward = velocity >= 0;
+
+        if (beam == Beam.ENTRY) {
+            if (event.blocked && forward) {
+                int index = findLast(CargoStage.INTAKE);
+                Cargo c = index >= 0 ? cargo.get(index) : addBehind(CargoStage.FEEDER);
+                setStage(c, CargoStage.FEEDER);
+                c.entryPosition = event.position;
+            } else if (!event.blocked && !forward) {
+                // backed out of the feeder into the intake
+                int index = findLast(CargoStage.FEEDER);
+                if (index >= 0) {
+                    setStage(cargo.get(index), CargoStage.INTAKE);
+                }
+            }
+        } else {
+            if (event.blocked) {
+                int index = findFirst(CargoStage.FEEDER);
+                if (findFirst(CargoStage.STAGED) >= 0) {
+                    // already staged, e.g. the beam flickered
+                } else if (index >= 0) {
+                    setStage(cargo.get(index), CargoStage.STAGED);
+                } else {
+                    cargo.add(0, new Cargo(CargoStage.STAGED, event.position - feeder.REV_PER_FULL_FEED));
+                }
+            } else if (forward) {
+                if (findFirst(CargoStage.STAGED) >= 0) {
+                    fire(event.timestamp);
+                }
+            } else {
+                int index = findFirst(CargoStage.STAGED);
+                if (index >= 0) {
+                    setStage(cargo.get(index), CargoStage.FEEDER);
+                }
+            }
+        }
+    }
+
+    private void fire(double timestamp) {
+        cargo.remove(findFirst(CargoStage.STAGED));
+        cargoFired++;
+        lastFiredTime = timestamp;
+        for (Runnable listener : firedListeners) {
+            listener.run();
+        }
+    }
+
+    private void setStage(Cargo c, CargoStage stage) {
+        c.stage = stage;
+        c.stageTime = Timer.getFPGATimestamp();
+    }
+
+    // new cargo behind the last one on the way in
+    private Cargo addBehind(CargoStage stage) {
+        Cargo c = new Cargo(stage, feeder.getFeedPosition());
+        int index = findFirst(CargoStage.INTAKE);
+        cargo.add(index >= 0 ? index : cargo.size(), c);
+        return c;
+    }
+
+    private int findFirst(CargoStage stage) {
+        for (int i = 0; i < cargo.size(); i++) {
+            if (cargo.get(i).stage == stage) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int findLast(CargoStage stage) {
+        for (int i = cargo.size() - 1; i >= 0; i--) {
+            if (cargo.get(i).stage == stage) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private String describe() {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < cargo.size(); i++) {
+            if (i > 0) {
+                result.append(", ");
+            }
+            Cargo c = cargo.get(i);
+            result.append(c.stage);
+            if (c.stage == CargoStage.FEEDER) {
+                result.append(String.format(" %.0f%%", getProgress(i) * 100));
+            }
+        }
+        return result.toString();
+    }
+
+    // ---------------------------------------------------------------------------
+    // Queries
+    // ---------------------------------------------------------------------------
+
+    /**
+     * @return Number of cargo on board, in the intake, the feeder or staged
+     */
+    public int getCargoCount() {
+        return cargo.size();
+    }
+
+    public boolean isEmpty() {
+        return cargo.isEmpty();
+    }
+
+    /**
+     * @return Number of cargo past the intake, in the feeder or staged
+     */
+    public int getFeederCargoCount() {
+        int count = 0;
+        for (Cargo c : cargo) {
+            if (c.stage != CargoStage.INTAKE) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return Cargo on board, nearest the shooter first. Do not modify.
+     */
+    public List<Cargo> getCargo() {
+        return cargo;
+    }
+
+    /**
+     * @return How far the i'th cargo has travelled through the feeder, 0 at the
+     *         entry to 1 at the exit
+     */
+    public double getProgress(int i) {
+        Cargo c = cargo.get(i);
+        switch (c.stage) {
+            case INTAKE:
+                return 0;
+            case STAGED:
+                return 1;
+            default:
+                double travel = (feeder.getFeedPosition() - c.entryPosition) / feeder.REV_PER_FULL_FEED;
+                return Math.max(0, Math.min(1, travel));
+        }
+    }
+
+    /**
+     * @return Number of cargo that have left the feeder into the shooter since
+     *         the robot started; compare two readings to count shots
+     */
+    public int getCargoFired() {
+        return cargoFired;
+    }
+
+    /**
+     * @return FPGA time the last cargo left the feeder, NaN if none has
+     */
+    public double getLastFiredTime() {
+        return lastFiredTime;
+    }
+
+    /**
+     * For shooting commands that end once their cargo are gone.
+     *
+     * @param since getCargoFired() when the command started
+     * @param count Number of cargo the command is shooting
+     * @return Whether count cargo have been fired since then, or the robot is
+     *         empty, and the last one has had time to clear the flywheel
+     */
+    public boolean hasFired(int since, int count) {
+        boolean done = cargoFired - since >= count || isEmpty();
+        return done && (Double.isNaN(lastFiredTime) || Timer.getFPGATimestamp() - lastFiredTime >= SHOT_CLEAR_TIME);
+    }
+
+    /**
+     * Run something every time a cargo is fired, from the scheduler thread.
+     */
+    public void addCargoFiredListener(Runnable listener) {
+        firedListeners.add(listener);
+    }
+
+    // ---------------------------------------------------------------------------
+    // Corrections
+    // ---------------------------------------------------------------------------
+
+    /**
+     * Forget the model and rebuild it from what the feeder beams see now.
+     */
+    public void resetFromSensors() {
+        cargo.clear();
+        if (feeder.isBlocked(Beam.EXIT)) {
+            cargo.add(new Cargo(CargoStage.STAGED, feeder.getFeedPosition() - feeder.REV_PER_FULL_FEED));
+        }
+        if (feeder.isBlocked(Beam.ENTRY)) {
+            cargo.add(new Cargo(CargoStage.FEEDER, feeder.getFeedPosition()));
+        }
+    }
+
+    /**
+     * Tell the tracker how many cargo are on board when it can't have seen them
+     * arrive, e.g. the preloaded cargo at the start of autonomous. Cargo the
+     * beams can see are kept, the rest are assumed to be in the feeder.
+     */
+    public void setCargoCount(int count) {
+        resetFromSensors();
+        while (cargo.size() > count) {
+            cargo.remove(cargo.size() - 1);
+        }
+        while (cargo.size() < count) {
+            cargo.add(new Cargo(CargoStage.FEEDER, feeder.getFeedPosition()));
+        }
+    }
+}
@@ -1,25 +1,39 @@
 package frc.robot.subsystems;
 
+import com.ctre.phoenix.motorcontrol.StatusFrameEnhanced;
+import com.ctre.phoenix.motorcontrol.can.TalonFX;
+import com.ctre.phoenix.sensors.CANCoder;
+import com.ctre.phoenix.sensors.CANCoderStatusFrame;
 import com.swervedrivespecialties.swervelib.Mk4SwerveModuleHelper;
 import com.swervedrivespecialties.swervelib.SdsModuleConfigurations;
 import com.swervedrivespecialties.swervelib.SwerveModule;
 
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.locks.StampedLock;
+
 import edu.wpi.first.math.geometry.Pose2d;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.geometry.Translation2d;
 import edu.wpi.first.math.kinematics.ChassisSpeeds;
 import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
-import edu.wpi.first.math.kinematics.SwerveDriveOdometry;
 import edu.wpi.first.math.kinematics.SwerveModuleState;
 import edu.wpi.first.networktables.NetworkTableEntry;
+import edu.wpi.first.wpilibj.Notifier;
+import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj.shuffleboard.BuiltInLayouts;
 import edu.wpi.first.wpilibj.shuffleboard.Shuffleboard;
 import edu.wpi.first.wpilibj.shuffleboard.ShuffleboardLayout;
 import edu.wpi.first.wpilibj.shuffleboard.ShuffleboardTab;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
 
+import frc.robot.Constants;
 import frc.robot.drivers.Pigeon;
+import frc.robot.utils.HubPoseEstimator;
+import frc.robot.utils.LimelightFrame;
+import frc.robot.utils.MathUtils;
+import frc.robot.utils.PoseHistory;
 import frc.robot.utils.SwerveDriveConfig;
+import frc.robot.utils.SwerveModuleConfig;
 
 public class DrivetrainSubsystem extends SubsystemBase {
 
@@ -31,8 +45,24 @@ public class DrivetrainSubsystem extends SubsystemBase {
     public final double maxVelocity;
     public final double maxAngularVelocity;
 
+    private static final int MODULE_COUNT = 4;
+
+    // Odometry runs on its own thread, faster than the 50Hz command scheduler.
+    private static final double ODOMETRY_PERIOD = 0.005;
+
+    // The module sensors publish their feedback this often (ms) so each
+    // odometry update sees a fresh sample instead of repeating the last one.
+    private static final int SENSOR_STATUS_PERIOD_MS = (int) (ODOMETRY_PERIOD * 1000);
+    private static final int CAN_TIMEOUT_MS = 100;
+
+    // Number of odometry updates kept in the pose history, about 2.5 seconds.
+    private static final int POSE_HISTORY_SIZE = 512;
+
+    // Vision is ignored while turning faster than this (radians/second), the
+    // target smears and small timing errors turn into large bearing errors.
+    private static final double VISION_MAX_OMEGA = Math.toRadians(90);
+
     private final SwerveDriveKinematics kinematics;
-    private final SwerveDriveOdometry odometry;
     private final Pigeon pigeon;
     // private final Pixy pixy;
 
@@ -40,10 +70,73 @@ public class DrivetrainSubsystem extends SubsystemBase {
     private final SwerveModule frontRightModule;
     private final SwerveModule backLeftModule;
     private final SwerveModule backRightModule;
-
-    private Pose2d robotPosition;
-    private ChassisSpeeds chassisSpeeds = new ChassisSpeeds(0.0, 0.0, 0.0);
-    private ChassisSpeeds velocity;
+    private final SwerveModule[] modules;
+
+    // The periodic update works on these preallocated primitives instead of
+    // SwerveModuleState/Rotation2d/ChassisSpeeds objects so it creates no garbage.
+    // Module order is FL, FR, BL, BR, same as the kinematics object.
+    private final double[] moduleX = new double[MODULE_COUNT];
+    private final double[] moduleY = new double[MODULE_COUNT];
+    private final double[] targetSpeeds = new double[MODULE_COUNT];
+    private final double[] targetAngles = new double[MODULE_COUNT];
+    private final double[] measuredSpeeds = new double[MODULE_COUNT];
+    private final double[] measuredAngles = new double[MODULE_COUNT];
+
+    // requested chassis speeds, robot relative
+    private double driveVx;
+    private double driveVy;
+    private double driveOmega;
+
+    // Odometry state written by the odometry thread. Readers take a consistent
+    // snapshot with an optimistic read of odometryLock, which does not block the
+    // writer and only retries with a read lock if an update raced with it.
+    private final StampedLock odometryLock = new StampedLock();
+    private final Notifier odometryNotifier;
+    private double poseX; // field relative
+    private double poseY;
+    private double poseHeading;
+    private double velocityVx; // robot relative
+    private double velocityVy;
+    private double velocityOmega;
+    private double odometryTimestamp;
+    private double gyroOffset;
+    private long odometryVersion;
+    private final PoseHistory poseHistory = new PoseHistory(POSE_HISTORY_SIZE);
+
+    // only touched by the odometry thread
+    private double lastOdometryTime = Double.NaN;
+
+    // Latest snapshot for the robot thread, indexed by the SNAPSHOT_ constants.
+    private static final int SNAPSHOT_X = 0;
+    private static final int SNAPSHOT_Y = 1;
+    private static final int SNAPSHOT_HEADING = 2;
+    private static final int SNAPSHOT_VX = 3;
+    private static final int SNAPSHOT_VY = 4;
+    private static final int SNAPSHOT_OMEGA = 5;
+    private static final int SNAPSHOT_TIMESTAMP = 6;
+    private final double[] snapshot = new double[7];
+
+    // Correction of odometry drift from hub observations. Only used from the
+    // robot thread, the odometry thread and pose history stay in the raw
+    // odometry frame and the correction is applied when the pose is read.
+    private final HubPoseEstimator poseEstimator = new HubPoseEstimator(
+            Constants.HUB_X, Constants.HUB_Y, Constants.HUB_RADIUS, Constants.CAMERA_YAW);
+    private final PoseHistory.Sample visionSample = new PoseHistory.Sample();
+    private LimelightSubsystem vision;
+    private long lastVisionFrame = -1;
+    private double lastPredictX;
+    private double lastPredictY;
+
+    // Objects handed out by getPose/getVelocity, only rebuilt when odometry or
+    // the vision correction has updated since they were last built.
+    private Pose2d robotPosition = new Pose2d();
+    private ChassisSpeeds velocity = new ChassisSpeeds();
+    private long robotPositionVersion = -1;
+    private long robotPositionEstimatorVersion = -1;
+    private long velocityVersion = -1;
+
+    // Bytes allocated by this thread during periodic, for catching regressions.
+    private final com.sun.management.ThreadMXBean allocationBean;
 
     private NetworkTableEntry poseXEntry;
     private NetworkTableEntry poseYEntry;
@@ -51,6 +144,10 @@ public class DrivetrainSubsystem extends SubsystemBase {
     private NetworkTableEntry driveSignalXEntry;
     private NetworkTableEntry driveSignalYEntry;
     private NetworkTableEntry driveSignalRotationEntry;
+    private NetworkTableEntry allocatedBytesEntry;
+    private NetworkTableEntry visionOffsetXEntry;
+    private NetworkTableEntry visionOffsetYEntry;
+    private NetworkTableEntry visionStdDevEntry;
 
  //   private NetworkTableEntry cargoAreaEntry;
  //   private NetworkTableEntry cargoXEntry;
@@ -80,7 +177,16 @@ public class DrivetrainSubsystem extends SubsystemBase {
                 new Translation2d(-trackWidth / 2.0, -wheelbase / 2.0) // BR
         );
 
-        odometry = new SwerveDriveOdometry(kinematics, getGyroscopeRotation(), new Pose2d());
+        moduleX[0] = trackWidth / 2.0;
+        moduleY[0] = wheelbase / 2.0;
+        moduleX[1] = trackWidth / 2.0;
+        moduleY[1] = -wheelbase / 2.0;
+        moduleX[2] = -trackWidth / 2.0;
+        moduleY[2] = wheelbase / 2.0;
+        moduleX[3] = -trackWidth / 2.0;
+        moduleY[3] = -wheelbase / 2.0;
+
+        setPose(0, 0, 0, false);
 
         // Create our swerve module objects.
         /*
@@ -130,6 +236,22 @@ public class DrivetrainSubsystem extends SubsystemBase {
                 config.backRight.encoderCanId,
                 config.backRight.encoderOffset);
 
+        modules = new SwerveModule[] { frontLeftModule, frontRightModule, backLeftModule, backRightModule };
+
+        configureStatusFrames(config.frontLeft);
+        configureStatusFrames(config.frontRight);
+        configureStatusFrames(config.backLeft);
+        configureStatusFrames(config.backRight);
+
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+            allocationBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            if (allocationBean.isThreadAllocatedMemorySupported()) {
+                allocationBean.setThreadAllocatedMemoryEnabled(true);
+            }
+        } else {
+            allocationBean = null;
+        }
+
         ShuffleboardTab drivetrainRobotTab = Shuffleboard.getTab("Drivetrain");
         poseXEntry = drivetrainRobotTab.add("Pose X", 0.0)
                 .withPosition(0, 0)
@@ -158,26 +280,188 @@ public class DrivetrainSubsystem extends SubsystemBase {
         driveSignalYEntry = driveSignalContainer.add("Drive Signal Strafe", 0.0).getEntry();
         driveSignalXEntry = driveSignalContainer.add("Drive Signal Forward", 0.0).getEntry();
         driveSignalRotationEntry = driveSignalContainer.add("Drive Signal Rotation", 0.0).getEntry();
+        allocatedBytesEntry = drivetrainRobotTab.add("Periodic Allocated Bytes", 0)
+                .withPosition(1, 0)
+                .withSize(1, 1)
+                .getEntry();
+        visionOffsetXEntry = drivetrainRobotTab.add("Vision Offset X", 0.0)
+                .withPosition(1, 1)
+                .withSize(1, 1)
+                .getEntry();
+        visionOffsetYEntry = drivetrainRobotTab.add("Vision Offset Y", 0.0)
+                .withPosition(1, 2)
+                .withSize(1, 1)
+                .getEntry();
+        visionStdDevEntry = drivetrainRobotTab.add("Vision StdDev", 0.0)
+                .withPosition(2, 0)
+                .withSize(1, 1)
+                .getEntry();
 
         //resetGyroscope();
+
+        odometryNotifier = new Notifier(this::updateOdometry);
+        odometryNotifier.setName("Odometry");
+        odometryNotifier.startPeriodic(ODOMETRY_PERIOD);
+    }
+
+    /**
+     * Speed up the status frames odometry reads from a module, the drive and
+     * steer Falcon position and velocity and the CANCoder angle, from their
+     * 10-20 ms defaults to the odometry period. swervelib keeps its motor
+     * objects to itself, so this goes through a second handle to each device.
+     */
+    private static void configureStatusFrames(SwerveModuleConfig module) {
+        new TalonFX(module.driveMotorCanId).setStatusFramePeriod(
+                StatusFrameEnhanced.Status_2_Feedback0, SENSOR_STATUS_PERIOD_MS, CAN_TIMEOUT_MS);
+        new TalonFX(module.steerMotorCanId).setStatusFramePeriod(
+                StatusFrameEnhanced.Status_2_Feedback0, SENSOR_STATUS_PERIOD_MS, CAN_TIMEOUT_MS);
+        new CANCoder(module.encoderCanId).setStatusFramePeriod(
+                CANCoderStatusFrame.SensorData, SENSOR_STATUS_PERIOD_MS, CAN_TIMEOUT_MS);
+    }
+
+    /**
+     * Use hub observations from the Limelight to correct odometry drift.
+     */
+    public void setVisionSource(LimelightSubsystem limelight) {
+        vision = limelight;
     }
 
     public void resetPosition() {
-        odometry.resetPosition(new Pose2d(), getGyroscopeRotation());
+        setPose(0, 0, 0, false);
     }
 
     public void invertRotation() {
-            odometry.resetPosition(new Pose2d(new Translation2d(), Rotation2d.fromDegrees(180)), pigeon.getRotation2d());
+        setPose(0, 0, Math.PI, false);
     }
 
     public void setAutoInitPose(Pose2d pose) {
-            odometry.resetPosition(pose, getGyroscopeRotation());
+        setPose(pose.getX(), pose.getY(), pose.getRotation().getRadians(), true);
+    }
+
+    /**
+     * @param known True if the robot really is at this pose, false if it is only
+     *              a placeholder that vision should correct as soon as it can
+     */
+    private void setPose(double x, double y, double heading, boolean known) {
+        double gyroAngle = Math.toRadians(pigeon.getAngle());
+
+        long stamp = odometryLock.writeLock();
+        try {
+            poseX = x;
+            poseY = y;
+            poseHeading = heading;
+            gyroOffset = heading - gyroAngle;
+            odometryVersion++;
+
+            // History from before a reset is in a different frame.
+            poseHistory.clear();
+        } finally {
+            odometryLock.unlockWrite(stamp);
+        }
+
+        poseEstimator.reset(known);
+        lastPredictX = x;
+        lastPredictY = y;
+    }
+
+    /**
+     * Copy a consistent snapshot of the odometry state into the robot thread's
+     * snapshot array.
+     *
+     * @return version of the odometry state that was read
+     */
+    private long readOdometry() {
+        long stamp = odometryLock.tryOptimisticRead();
+        long version = copyOdometry();
+
+        if (!odometryLock.validate(stamp)) {
+            stamp = odometryLock.readLock();
+            try {
+                version = copyOdometry();
+            } finally {
+                odometryLock.unlockRead(stamp);
+            }
+        }
+        return version;
+    }
+
+    private long copyOdometry() {
+        snapshot[SNAPSHOT_X] = poseX;
+        snapshot[SNAPSHOT_Y] = poseY;
+        snapshot[SNAPSHOT_HEADING] = poseHeading;
+        snapshot[SNAPSHOT_VX] = velocityVx;
+        snapshot[SNAPSHOT_VY] = velocityVy;
+        snapshot[SNAPSHOT_OMEGA] = velocityOmega;
+        snapshot[SNAPSHOT_TIMESTAMP] = odometryTimestamp;
+        return odometryVersion;
     }
 
+    /**
+     * Look up where the robot was at a given time, e.g. when a camera frame was
+     * captured. Does not allocate, reuse the sample between calls. Positions are
+     * raw odometry without the vision correction applied.
+     *
+     * @param timestamp FPGA time in seconds
+     * @param sample    Filled in with the robot state at that time
+     * @return True if the time is covered by the pose history
+     */
+    public boolean getPoseAt(double timestamp, PoseHistory.Sample sample) {
+        long stamp = odometryLock.tryOptimisticRead();
+        boolean result = poseHistory.sample(timestamp, sample);
+
+        if (!odometryLock.validate(stamp)) {
+            stamp = odometryLock.readLock();
+            try {
+                result = poseHistory.sample(timestamp, sample);
+            } finally {
+                odometryLock.unlockRead(stamp);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return Odometry pose corrected by vision
+     */
     public Pose2d getPose() {
+        long version = readOdometry();
+        long estimatorVersion = poseEstimator.getVersion();
+        if (version != robotPositionVersion || estimatorVersion != robotPositionEstimatorVersion) {
+            robotPosition = new Pose2d(
+                    snapshot[SNAPSHOT_X] + poseEstimator.getOffsetX(),
+                    snapshot[SNAPSHOT_Y] + poseEstimator.getOffsetY(),
+                    new Rotation2d(snapshot[SNAPSHOT_HEADING]));
+            robotPositionVersion = version;
+            robotPositionEstimatorVersion = estimatorVersion;
+        }
         return robotPosition;
     }
 
+    // The primitive pose getters do not allocate, use them in code that runs
+    // every loop.
+    public double getPoseX() {
+        readOdometry();
+        return snapshot[SNAPSHOT_X] + poseEstimator.getOffsetX();
+    }
+
+    public double getPoseY() {
+        readOdometry();
+        return snapshot[SNAPSHOT_Y] + poseEstimator.getOffsetY();
+    }
+
+    public double getPoseHeading() {
+        readOdometry();
+        return snapshot[SNAPSHOT_HEADING];
+    }
+
+    /**
+     * @return FPGA time in seconds of the last odometry update
+     */
+    public double getOdometryTimestamp() {
+        readOdometry();
+        return snapshot[SNAPSHOT_TIMESTAMP];
+    }
+
     public void resetGyroscope() {
         pigeon.reset();
     }
@@ -187,11 +471,38 @@ public class DrivetrainSubsystem extends SubsystemBase {
     }
 
     public void drive(ChassisSpeeds chassisSpeeds) {
-        this.chassisSpeeds = chassisSpeeds;
+        drive(chassisSpeeds.vxMetersPerSecond, chassisSpeeds.vyMetersPerSecond,
+                chassisSpeeds.omegaRadiansPerSecond);
+    }
+
+    /**
+     * Robot relative drive without a ChassisSpeeds, for commands that run
+     * every loop and should not allocate.
+     */
+    public void drive(double vx, double vy, double omega) {
+        driveVx = vx;
+        driveVy = vy;
+        driveOmega = omega;
     }
 
     public ChassisSpeeds getVelocity() {
-            return velocity;
+        long version = readOdometry();
+        if (version != velocityVersion) {
+            velocity = new ChassisSpeeds(snapshot[SNAPSHOT_VX], snapshot[SNAPSHOT_VY], snapshot[SNAPSHOT_OMEGA]);
+            velocityVersion = version;
+        }
+        return velocity;
+    }
+
+    // Robot relative velocity without a ChassisSpeeds, see getPoseX
+    public double getVelocityX() {
+        readOdometry();
+        return snapshot[SNAPSHOT_VX];
+    }
+
+    public double getVelocityY() {
+        readOdometry();
+        return snapshot[SNAPSHOT_VY];
     }
 
     public double getMaxVelocity() {
@@ -219,40 +530,166 @@ public class DrivetrainSubsystem extends SubsystemBase {
 
         @Override
         public void periodic() {
-                SwerveModuleState[] states = kinematics.toSwerveModuleStates(chassisSpeeds);
-                SwerveDriveKinematics.desaturateWheelSpeeds(states, maxVelocity);
-
-                SwerveModuleState currentFrontLeft = new SwerveModuleState(frontLeftModule.getDriveVelocity(),
-                                new Rotation2d(frontLeftModule.getSteerAngle()));
-                SwerveModuleState currentFrontRight = new SwerveModuleState(frontRightModule.getDriveVelocity(),
-                                new Rotation2d(frontRightModule.getSteerAngle()));
-                SwerveModuleState currentBackLeft = new SwerveModuleState(backLeftModule.getDriveVelocity(),
-                                new Rotation2d(backLeftModule.getSteerAngle()));
-                SwerveModuleState currentBackRight = new SwerveModuleState(backRightModule.getDriveVelocity(),
-                                new Rotation2d(backRightModule.getSteerAngle()));
-
-                SwerveModuleState[] currentStates = new SwerveModuleState[4];
-                currentStates[0] = currentFrontLeft;
-                currentStates[1] = currentFrontRight;
-                currentStates[2] = currentBackLeft;
-                currentStates[3] = currentBackRight;
-
-                robotPosition = odometry.update(getGyroscopeRotation(), currentStates);
-                velocity = kinematics.toChassisSpeeds(currentStates);
-
-                setModuleStates(states);
-
-                driveSignalYEntry.setDouble(chassisSpeeds.vyMetersPerSecond);
-                driveSignalXEntry.setDouble(chassisSpeeds.vxMetersPerSecond);
-                driveSignalRotationEntry.setDouble(chassisSpeeds.omegaRadiansPerSecond);
-                poseXEntry.setDouble(getPose().getTranslation().getX());
-                poseYEntry.setDouble(getPose().getTranslation().getY());
-                poseAbsoluteAngleEntry.setDouble(getPose().getRotation().getDegrees());
+                long threadId = Thread.currentThread().getId();
+                long allocatedBefore = allocationBean != null ? allocationBean.getThreadAllocatedBytes(threadId) : 0;
+
+                updateTargetStates();
+                readOdometry();
+                updateVision();
+
+                for (int i = 0; i < MODULE_COUNT; i++) {
+                        modules[i].set(targetSpeeds[i] / maxVelocity * MAX_VOLTAGE, targetAngles[i]);
+                }
+
+                driveSignalYEntry.setDouble(driveVy);
+                driveSignalXEntry.setDouble(driveVx);
+                driveSignalRotationEntry.setDouble(driveOmega);
+                poseXEntry.setDouble(snapshot[SNAPSHOT_X] + poseEstimator.getOffsetX());
+                poseYEntry.setDouble(snapshot[SNAPSHOT_Y] + poseEstimator.getOffsetY());
+                visionOffsetXEntry.setDouble(poseEstimator.getOffsetX());
+                visionOffsetYEntry.setDouble(poseEstimator.getOffsetY());
+                visionStdDevEntry.setDouble(poseEstimator.getStdDev());
+                poseAbsoluteAngleEntry.setDouble(Math.toDegrees(snapshot[SNAPSHOT_HEADING]));
 
                 // Block cargo = pixy.getLargestBlock();
                 // cargoAreaEntry.setDouble(pixy.getArea(cargo));
                 // cargoXEntry.setDouble(pixy.getX(cargo));
 
                 // pose angle entry (for trajectory following tuning)
+
+                if (allocationBean != null) {
+                        allocatedBytesEntry.setDouble(allocationBean.getThreadAllocatedBytes(threadId) - allocatedBefore);
+                }
+        }
+
+        /**
+         * Feed the latest hub observation to the pose estimator, using the pose
+         * the robot had when the frame was captured. Expects the snapshot to
+         * be current.
+         */
+        private void updateVision() {
+                double x = snapshot[SNAPSHOT_X];
+                double y = snapshot[SNAPSHOT_Y];
+                poseEstimator.predict(Math.hypot(x - lastPredictX, y - lastPredictY));
+                lastPredictX = x;
+                lastPredictY = y;
+
+                if (vision == null) {
+                        return;
+                }
+
+                // Only use each camera frame once, but use every frame that
+                // arrived since the last update, each with the pose from when
+                // it was captured.
+                LimelightFrame frame;
+                while ((frame = vision.getNextFrame(lastVisionFrame)) != null) {
+                        lastVisionFrame = frame.getId();
+                        if (!frame.hasTarget() || Math.abs(snapshot[SNAPSHOT_OMEGA]) > VISION_MAX_OMEGA
+                                        || !getPoseAt(frame.getCaptureTimestamp(), visionSample)) {
+                                continue;
+                        }
+
+                        // tx is positive to the right, bearing is counter-clockwise
+                        // positive from the camera axis, which faces backwards
+                        poseEstimator.addObservation(visionSample.x, visionSample.y, visionSample.heading,
+                                        vision.getDistance(frame), -Math.toRadians(frame.getXOffset()));
+                }
+        }
+
+        /**
+         * Inverse kinematics and desaturation of the requested chassis speeds into
+         * targetSpeeds/targetAngles. Same math as SwerveDriveKinematics.
+         */
+        private void updateTargetStates() {
+                // Keep the modules pointing where they are when asked to stop.
+                if (driveVx == 0 && driveVy == 0 && driveOmega == 0) {
+                        for (int i = 0; i < MODULE_COUNT; i++) {
+                                targetSpeeds[i] = 0;
+                        }
+                        return;
+                }
+
+                double fastest = 0;
+                for (int i = 0; i < MODULE_COUNT; i++) {
+                        double vx = driveVx - driveOmega * moduleY[i];
+                        double vy = driveVy + driveOmega * moduleX[i];
+                        targetSpeeds[i] = Math.hypot(vx, vy);
+                        targetAngles[i] = Math.atan2(vy, vx);
+                        fastest = Math.max(fastest, targetSpeeds[i]);
+                }
+
+                if (fastest > maxVelocity) {
+                        for (int i = 0; i < MODULE_COUNT; i++) {
+                                targetSpeeds[i] *= maxVelocity / fastest;
+                        }
+                }
+        }
+
+        /**
+         * Forward kinematics of the measured module states and integration of the
+         * pose with the gyro heading. Same math as SwerveDriveOdometry, relying on
+         * the modules being placed symmetrically about the robot center. Runs on
+         * the odometry notifier thread.
+         */
+        private void updateOdometry() {
+                double sumVx = 0;
+                double sumVy = 0;
+                for (int i = 0; i < MODULE_COUNT; i++) {
+                        measuredSpeeds[i] = modules[i].getDriveVelocity();
+                        measuredAngles[i] = modules[i].getSteerAngle();
+
+                        double vx = measuredSpeeds[i] * Math.cos(measuredAngles[i]);
+                        double vy = measuredSpeeds[i] * Math.sin(measuredAngles[i]);
+                        sumVx += vx;
+                        sumVy += vy;
+                }
+
+                // One IMU read per update, the gyro rate is more accurate than
+                // the rotation the modules measure.
+                pigeon.update();
+                double vx = sumVx / MODULE_COUNT;
+                double vy = sumVy / MODULE_COUNT;
+                double omega = Math.toRadians(pigeon.getRate());
+                double gyroAngle = Math.toRadians(pigeon.getAngle());
+
+                double now = Timer.getFPGATimestamp();
+                double dt = Double.isNaN(lastOdometryTime) ? 0 : now - lastOdometryTime;
+                lastOdometryTime = now;
+
+                long stamp = odometryLock.writeLock();
+                try {
+                        double heading = gyroAngle + gyroOffset;
+                        double dx = vx * dt;
+                        double dy = vy * dt;
+                        double dtheta = MathUtils.AngleDifference(heading, poseHeading);
+
+                        // Pose exponential: move along an arc of the measured twist.
+                        double sinTerm;
+                        double cosTerm;
+                        if (Math.abs(dtheta) < 1E-9) {
+                                sinTerm = 1.0 - dtheta * dtheta / 6.0;
+                                cosTerm = 0.5 * dtheta;
+                        } else {
+                                sinTerm = Math.sin(dtheta) / dtheta;
+                                cosTerm = (1 - Math.cos(dtheta)) / dtheta;
+                        }
+                        double localX = dx * sinTerm - dy * cosTerm;
+                        double localY = dx * cosTerm + dy * sinTerm;
+
+                        double cos = Math.cos(poseHeading);
+                        double sin = Math.sin(poseHeading);
+                        poseX += localX * cos - localY * sin;
+                        poseY += localX * sin + localY * cos;
+                        poseHeading = heading;
+                        velocityVx = vx;
+                        velocityVy = vy;
+                        velocityOmega = omega;
+                        odometryTimestamp = now;
+                        odometryVersion++;
+
+                        poseHistory.add(now, poseX, poseY, poseHeading, vx, vy, omega);
+                } finally {
+                        odometryLock.unlockWrite(stamp);
+                }
         }
 }
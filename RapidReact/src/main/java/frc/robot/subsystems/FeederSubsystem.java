@@ -1,18 +1,23 @@
 package frc.robot.subsystems;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import com.revrobotics.CANSparkMax;
 import com.revrobotics.RelativeEncoder;
 import com.revrobotics.SparkMaxPIDController;
 import com.revrobotics.CANSparkMax.ControlType;
 import com.revrobotics.CANSparkMax.IdleMode;
 import com.revrobotics.CANSparkMaxLowLevel.MotorType;
+import com.revrobotics.CANSparkMaxLowLevel.PeriodicFrame;
 
 import edu.wpi.first.networktables.NetworkTableEntry;
-import edu.wpi.first.wpilibj.DigitalInput;
+import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj.shuffleboard.Shuffleboard;
 import edu.wpi.first.wpilibj.shuffleboard.ShuffleboardTab;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
+import frc.robot.drivers.BeamBreak;
+import frc.robot.utils.BeamBreakQueue;
 
 public class FeederSubsystem extends SubsystemBase {
 
@@ -25,6 +30,24 @@ public class FeederSubsystem extends SubsystemBase {
         REVERSE_CONTINUOUS
     }
 
+    public enum Beam {
+        ENTRY,
+        EXIT
+    }
+
+    /**
+     * Told about every beam edge, in the order they happened, from periodic().
+     */
+    public interface BeamListener {
+        /**
+         * @param beam     Which beam changed
+         * @param event    The edge, only valid during the call
+         * @param velocity Feed encoder velocity in RPM when the edge was processed,
+         *                 positive towards the shooter
+         */
+        void beamChanged(Beam beam, BeamBreakQueue.Event event, double velocity);
+    }
+
     private final double FEEDER_GEAR_RATIO_MULTIPLIER = 1;
 
     // Feeder PID constants
@@ -49,11 +72,17 @@ public class FeederSubsystem extends SubsystemBase {
     private RelativeEncoder feedEncoder;
     private SparkMaxPIDController feedPID;
 
+    // Sensor state as of the last edge processed, see processSensorEvents().
+    boolean entryBlocked = false;
     boolean exitSensorTripped = false;
     double advanceTargetPos = 0;
 
-    private DigitalInput entrySensor;
-    private DigitalInput exitSensor;
+    private BeamBreak entrySensor;
+    private BeamBreak exitSensor;
+    private final BeamBreakQueue.Event sensorEvent = new BeamBreakQueue.Event();
+    private long entryDropped = 0;
+    private long exitDropped = 0;
+    private final List<BeamListener> beamListeners = new ArrayList<BeamListener>();
 
     private FeedModeBase currentMode;
     private HashMap<FeedMode, FeedModeBase> modes = new HashMap<FeedMode, FeedModeBase>();
@@ -79,9 +108,16 @@ public class FeederSubsystem extends SubsystemBase {
         feedEncoder.setPosition(0.0);
         feedEncoder.setVelocityConversionFactor(FEEDER_GEAR_RATIO_MULTIPLIER); // set feeder gear ratio
 
-        // Sensors for Feeder
-        entrySensor = new DigitalInput(entrySensorDio);
-        exitSensor = new DigitalInput(exitSensorDio);
+        // Position is sampled by the beam break interrupts, get it more often
+        // than the default 20ms.
+        feedMotor.setPeriodicFramePeriod(PeriodicFrame.kStatus2, 10);
+
+        // Sensors for Feeder, edges are caught by interrupts and stamped with
+        // the feed encoder position.
+        entrySensor = new BeamBreak(entrySensorDio, feedEncoder::getPosition, feedEncoder::getVelocity);
+        exitSensor = new BeamBreak(exitSensorDio, feedEncoder::getPosition, feedEncoder::getVelocity);
+        resyncSensor(entrySensor);
+        resyncSensor(exitSensor);
 
         // Setup our feed modes and initialize the system into the stopped mode.
         modes.put(FeedMode.STOPPED, new StoppedMode());
@@ -121,11 +157,9 @@ public class FeederSubsystem extends SubsystemBase {
     @Override
     public void periodic() {
 
-        // We need to clear our exit sensor tripped flag once we no longer see a cargo
-        // breaking the beam.
-        if (exitSensor.get()) {
-            exitSensorTripped = false;
-        }
+        // Catch up on the sensor edges since the last loop, including the ones
+        // that came and went in between.
+        processSensorEvents();
 
         // Execute the current mode, if it completes then put system in Stopped mode.
         if (currentMode.run(this)) {
@@ -137,8 +171,108 @@ public class FeederSubsystem extends SubsystemBase {
 
     private void updateTelemetry() {
         feederRPMEntry.setNumber(feedMotor.getEncoder().getVelocity());
-        entrySensorEntry.forceSetBoolean(entrySensor.get());
-        exitSensorEntry.forceSetBoolean(exitSensor.get());
+        entrySensorEntry.forceSetBoolean(!entrySensor.isBlocked());
+        exitSensorEntry.forceSetBoolean(!exitSensor.isBlocked());
+    }
+
+    /**
+     * Apply the queued edges of both beams in the order they happened, and let
+     * the current mode see each one. If a queue overflowed the edges in it are
+     * incomplete, so that sensor's state is read directly instead.
+     */
+    private void processSensorEvents() {
+        while (true) {
+            double entryTime = entrySensor.getEvents().peekTimestamp();
+            double exitTime = exitSensor.getEvents().peekTimestamp();
+
+            BeamBreak sensor;
+            if (Double.isNaN(entryTime) && Double.isNaN(exitTime)) {
+                break;
+            } else if (Double.isNaN(exitTime) || (!Double.isNaN(entryTime) && entryTime <= exitTime)) {
+                sensor = entrySensor;
+            } else {
+                sensor = exitSensor;
+            }
+            sensor.getEvents().poll(sensorEvent);
+
+            if (sensor == entrySensor) {
+                entryBlocked = sensorEvent.blocked;
+            } else if (sensorEvent.blocked) {
+                if (!exitSensorTripped) {
+                    exitSensorTripped = true;
+                    advanceTargetPos = sensorEvent.position + EXIT_ADVANCE_REV;
+                }
+            } else {
+                // clear the tripped flag once a cargo no longer breaks the beam
+                exitSensorTripped = false;
+            }
+
+            if (sensorEvent.timestamp >= currentMode.startTime) {
+                currentMode.beamChanged(this, sensor, sensorEvent);
+            }
+
+            Beam beam = sensor == entrySensor ? Beam.ENTRY : Beam.EXIT;
+            double velocity = feedEncoder.getVelocity();
+            for (BeamListener listener : beamListeners) {
+                listener.beamChanged(beam, sensorEvent, velocity);
+            }
+        }
+
+        long dropped = entrySensor.getEvents().getDroppedCount();
+        if (dropped != entryDropped) {
+            entryDropped = dropped;
+            resyncSensor(entrySensor);
+        }
+        dropped = exitSensor.getEvents().getDroppedCount();
+        if (dropped != exitDropped) {
+            exitDropped = dropped;
+            resyncSensor(exitSensor);
+        }
+    }
+
+    // Set a sensor's state from a direct read, when its edges can't be trusted.
+    private void resyncSensor(BeamBreak sensor) {
+        boolean blocked = sensor.isBlocked();
+        if (sensor == entrySensor) {
+            entryBlocked = blocked;
+        } else if (!blocked) {
+            exitSensorTripped = false;
+        } else if (!exitSensorTripped) {
+            exitSensorTripped = true;
+            advanceTargetPos = feedEncoder.getPosition() + EXIT_ADVANCE_REV;
+        }
+    }
+
+    public void addBeamListener(BeamListener listener) {
+        beamListeners.add(listener);
+    }
+
+    /**
+     * @return True if the beam is broken right now
+     */
+    public boolean isBlocked(Beam beam) {
+        return beam == Beam.ENTRY ? entrySensor.isBlocked() : exitSensor.isBlocked();
+    }
+
+    /**
+     * @return Feed encoder position in rotations
+     */
+    public double getFeedPosition() {
+        return feedEncoder.getPosition();
+    }
+
+    /**
+     * @return Feed encoder velocity in RPM
+     */
+    public double getFeedVelocity() {
+        return feedEncoder.getVelocity();
+    }
+
+    /**
+     * @return True if a cargo is waiting at the exit, ready to be shot
+     */
+    public boolean isCargoStaged() {
+        return ballInExit();
     }
 
     /**
@@ -157,6 +291,7 @@ public class FeederSubsystem extends SubsystemBase {
 
         currentMode.end(this); // Terminate the current mode
         currentMode = modes.get(mode); // Get the new desired mode
+        currentMode.startTime = Timer.getFPGATimestamp();
         currentMode.init(this); // Start the new mode
     }
 
@@ -167,31 +302,18 @@ public class FeederSubsystem extends SubsystemBase {
      */
     private boolean ballInEntry() {
 
-        return !entrySensor.get();
+        return entryBlocked;
     }
 
     /**
      * Tell caller if there is a at the exit end of the feeder. This is true
-     * if the exit sensor has been tripped AND the
+     * if the exit sensor has been tripped AND the belt has advanced
+     * EXIT_ADVANCE_REV since the edge.
      * 
      * @return True if a ball is present at the exit sensor, false otherwise.
      */
     private boolean ballInExit() {
-        boolean result = false;
-        double currentPos = feedEncoder.getPosition();
-
-        if (exitSensorTripped) {
-            if (currentPos >= advanceTargetPos) {
-                result = true;
-            }
-        } else {
-            if (!exitSensor.get()) {
-                exitSensorTripped = true;
-                advanceTargetPos = currentPos + EXIT_ADVANCE_REV;
-            }
-        }
-
-        return result;
+        return exitSensorTripped && feedEncoder.getPosition() >= advanceTargetPos;
     }
 
     /************************************************************************************************
@@ -199,6 +321,7 @@ public class FeederSubsystem extends SubsystemBase {
      */
     private abstract class FeedModeBase {
         FeedMode id;
+        double startTime; // FPGA time the mode was entered
 
         private FeedModeBase(FeedMode id) {
             this.id = id;
@@ -213,6 +336,13 @@ public class FeederSubsystem extends SubsystemBase {
 
         protected void end(FeederSubsystem feeder) {
         }
+
+        /**
+         * Called before run() for every beam edge since the last loop that
+         * happened after the mode was entered, oldest first.
+         */
+        protected void beamChanged(FeederSubsystem feeder, BeamBreak sensor, BeamBreakQueue.Event event) {
+        }
     }
 
     /************************************************************************************************
@@ -328,6 +458,16 @@ public class FeederSubsystem extends SubsystemBase {
             feeder.feedPID.setReference(FEED_RPM_SHOOT, ControlType.kVelocity);
         }
 
+        @Override
+        protected void beamChanged(FeederSubsystem feeder, BeamBreak sensor, BeamBreakQueue.Event event) {
+
+            // The ball being shot has cleared the exit, even if the next one
+            // broke the beam again before this loop.
+            if (sensor == feeder.exitSensor && !event.blocked) {
+                gapSeen = true;
+            }
+        }
+
         @Override
         protected boolean run(FeederSubsystem feeder) {
 
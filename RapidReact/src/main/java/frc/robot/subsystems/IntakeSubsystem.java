@@ -60,7 +60,7 @@ public class IntakeSubsystem extends SubsystemBase {
     intakeMotor.setIdleMode(IdleMode.kCoast);
     intakeMotor.setSmartCurrentLimit(MOTOR_CURRENT_LIMIT);
     intakeMotor.setPeriodicFramePeriod(PeriodicFrame.kStatus0, 500);
-    intakeMotor.setPeriodicFramePeriod(PeriodicFrame.kStatus1, 500);
+    intakeMotor.setPeriodicFramePeriod(PeriodicFrame.kStatus1, 20); // current, for cargo detection
     intakeMotor.setPeriodicFramePeriod(PeriodicFrame.kStatus2, 65535);
     intakeMotor.setPeriodicFramePeriod(PeriodicFrame.kStatus3, 65535);
 
@@ -167,6 +167,14 @@ public class IntakeSubsystem extends SubsystemBase {
     intakeMotor.set(0);
   }
 
+  public boolean isSpinningIn() {
+    return intakeMotor.get() > 0;
+  }
+
+  public double getMotorCurrent() {
+    return intakeMotor.getOutputCurrent();
+  }
+
   // ---------------------------------------------------------------------------
   // Telemetry
   // ---------------------------------------------------------------------------
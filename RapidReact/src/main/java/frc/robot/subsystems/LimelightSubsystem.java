@@ -1,13 +1,27 @@
 package frc.robot.subsystems;
 
+import edu.wpi.first.networktables.EntryListenerFlags;
 import edu.wpi.first.networktables.NetworkTable;
 import edu.wpi.first.networktables.NetworkTableEntry;
 import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.networktables.NetworkTableValue;
+import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
+import frc.robot.utils.FrameQueue;
+import frc.robot.utils.KalmanRangeFilter;
+import frc.robot.utils.LimelightFrame;
 import frc.robot.utils.MathUtils;
+import frc.robot.utils.RangeFilter;
 
 /**
+ * Target values are not polled. A NetworkTables listener collects tx, ty, ta,
+ * ts, tv and tl as the camera publishes them into a LimelightFrame stamped with
+ * its arrival time, and the getters all read the newest frame. A frame is only
+ * made visible once all of its values are in. Code that uses more than one
+ * value should take a frame with getLatestFrame() so the values can not come
+ * from two different camera frames.
+ *
  * @see http://docs.limelightvision.io/en/latest/getting_started.html#basic-programming 
  */
 public class LimelightSubsystem extends SubsystemBase {
@@ -30,18 +44,59 @@ public class LimelightSubsystem extends SubsystemBase {
   public static final int RED_PIPELINE = 1;
   public static final int DEFAULT_PIPELINE = BLUE_PIPELINE;
 
+  //image capture latency not included in tl (ms)
+  public static final double CAPTURE_LATENCY_MS = 11;
+
+  //updates arriving closer together than this are parts of the same frame (s).
+  //The camera publishes all values of a frame in one flush, at most 90 fps.
+  //A frame is complete once the next one starts or this long has passed
+  //without another value.
+  private static final double FRAME_GAP = 0.003;
+  private static final int FRAME_QUEUE_SIZE = 16;
+
+  //returned before the first frame arrives, matches the old polling defaults
+  private static final LimelightFrame NO_FRAME = new LimelightFrame(-1, 0, 0, false, -1, -1, -1, -1);
+
   //Distance constants
   public static double camera_Angle; //
   public static double camera_Height; //in Meters
   public static double target_Height; //center of target //in Meters
 
-  // Buffer used to calculate rolling distance average.
-  private int distanceBufferSize = 10;
-  private int distanceBufferIndex = 0;
-  private double distanceBuffer[] = new double[distanceBufferSize];
+  // Default distance filter: how fast the range can change (m/sqrt(s)) and the
+  // noise of a single reading (m). The process noise also sets how quickly a
+  // range goes stale, with 0.3 a 0.1 m standard deviation lasts about 0.1 s
+  // past the last frame.
+  private static final double RANGE_PROCESS_STDDEV = 0.3;
+  private static final double RANGE_MEASUREMENT_STDDEV = 0.05;
+  // The filtered distance is dropped after the target has been lost this long (s).
+  private static final double RANGE_TIMEOUT = 0.5;
+
+  // Filtered distance, fed with every camera frame that has a target.
+  private RangeFilter rangeFilter = new KalmanRangeFilter(RANGE_PROCESS_STDDEV, RANGE_MEASUREMENT_STDDEV);
+  private double lastRangeTimestamp = Double.NEGATIVE_INFINITY;
 
   private double tolerance = 0;
 
+  private final FrameQueue frames = new FrameQueue(FRAME_QUEUE_SIZE);
+
+  //Frame being received, written by the listener thread and completed by
+  //whichever thread notices it is complete. Guarded by pendingLock, which also
+  //keeps the frame queue to one writer at a time.
+  private static final int TX = 0;
+  private static final int TY = 1;
+  private static final int TA = 2;
+  private static final int TS = 3;
+  private static final int TV = 4;
+  private static final int TL = 5;
+  private final Object pendingLock = new Object();
+  private final double[] values = new double[6]; //latest value of each key, NT drops unchanged ones
+  private boolean framePending = false;
+  private long nextFrameId = 0;
+  private double frameArrival = Double.NEGATIVE_INFINITY;
+  private double lastUpdate = Double.NEGATIVE_INFINITY;
+  //last frame added to the distance filter
+  private long filteredFrameId = -1;
+
   //vision network table
   private NetworkTable visionTable;
   private NetworkTableEntry tx; //Horizontal Offset From Crosshair To Target (-27 degrees to 27 degrees)
@@ -49,6 +104,7 @@ public class LimelightSubsystem extends SubsystemBase {
   private NetworkTableEntry tv; //Whether the limelight has any valid targets (0 or 1)
   private NetworkTableEntry ta; //Target Area (0% of image to 100% of image)
   private NetworkTableEntry ts; //Skew or rotation (-90 degrees to 0 degrees)
+  private NetworkTableEntry tl; //The pipeline's latency contribution (ms)
   private NetworkTableEntry camtran; //Results of a 3D position solution, 6 numbers: Translation (x,y,y) Rotation(pitch,yaw,roll)
   
   public LimelightSubsystem(double cameraAngle, double cameraHeight, double targetHeight) {
@@ -62,7 +118,18 @@ public class LimelightSubsystem extends SubsystemBase {
     tv = visionTable.getEntry("tv");
     ta = visionTable.getEntry("ta");
     ts = visionTable.getEntry("ts");
+    tl = visionTable.getEntry("tl");
     camtran = visionTable.getEntry("camtran");
+
+    values[TX] = tx.getDouble(-1);
+    values[TY] = ty.getDouble(-1);
+    values[TA] = ta.getDouble(-1);
+    values[TS] = ts.getDouble(-1);
+    values[TV] = tv.getDouble(-1);
+    values[TL] = tl.getDouble(0);
+
+    visionTable.addEntryListener((table, key, entry, value, flags) -> onTableUpdate(key, value),
+        EntryListenerFlags.kNew | EntryListenerFlags.kUpdate);
     setMode(CAMERA_DEFAULT_MODE, LED_DEFAULT_MODE, DEFAULT_PIPELINE);
   }
 
@@ -71,31 +138,140 @@ public class LimelightSubsystem extends SubsystemBase {
    */
   @Override
   public void periodic() {
-    updateTelemetry();
+    LimelightFrame frame = getLatestFrame();
+    updateTelemetry(frame);
 
-    // If camera can see a valid target then add the current distance reading to the buffer
-    // used to generate the rolling average.
-    if (getValidTarget()) {
-      distanceBuffer[distanceBufferIndex++] = getDistance();
-      distanceBufferIndex %= distanceBufferSize;
+    // Add the distance from every new frame with a target to the filter, once
+    // per frame. After losing the target for a while start over, the robot
+    // has probably moved.
+    LimelightFrame next;
+    while ((next = getNextFrame(filteredFrameId)) != null) {
+      filteredFrameId = next.getId();
+      if (!next.hasTarget()) {
+        continue;
+      }
+      if (next.getCaptureTimestamp() - lastRangeTimestamp > RANGE_TIMEOUT) {
+        rangeFilter.reset();
+      }
+      lastRangeTimestamp = next.getCaptureTimestamp();
+      rangeFilter.update(getDistance(next), lastRangeTimestamp);
     }
+    SmartDashboard.putNumber("Filtered Distance", getAverageDistance());
+    SmartDashboard.putNumber("Distance StdDev", getDistanceStdDev());
   }
 
   public void updateTelemetry() {
-    //read values 
-    double x = tx.getDouble(-1);
-    double y = ty.getDouble(-1);
-    double area = ta.getDouble(-1);
-    boolean target = tv.getDouble(-1) == 1;
-    double skew = ts.getDouble(-1);
+    updateTelemetry(getLatestFrame());
+  }
 
+  private void updateTelemetry(LimelightFrame frame) {
     //post to smart dashboard
-    SmartDashboard.putNumber("LimelightX", x);
-    SmartDashboard.putNumber("LimelightY", y);
-    SmartDashboard.putNumber("LimelightArea", area);
-    SmartDashboard.putBoolean("Valid Target", target);
-    SmartDashboard.putNumber("Skew", skew);
-    SmartDashboard.putNumber("Distance", getDistance());
+    SmartDashboard.putNumber("LimelightX", frame.getXOffset());
+    SmartDashboard.putNumber("LimelightY", frame.getYOffset());
+    SmartDashboard.putNumber("LimelightArea", frame.getArea());
+    SmartDashboard.putBoolean("Valid Target", frame.hasTarget());
+    SmartDashboard.putNumber("Skew", frame.getSkew());
+    SmartDashboard.putNumber("Distance", getDistance(frame));
+    SmartDashboard.putNumber("Limelight Frame", frame.getId());
+  }
+
+  /**
+   * Called on the NetworkTables listener thread for every changed value in the
+   * limelight table. The camera's values for one frame arrive back to back, so
+   * an update soon after the previous one belongs to the frame being received,
+   * and a later one first completes that frame and then starts the next.
+   * NetworkTables drops updates that do not change a value, so a key missing
+   * from a frame keeps its previous value, and a frame identical to the last
+   * one (same tl included) is not seen.
+   */
+  private void onTableUpdate(String key, NetworkTableValue value) {
+    int index;
+    switch (key) {
+      case "tx":
+        index = TX;
+        break;
+      case "ty":
+        index = TY;
+        break;
+      case "ta":
+        index = TA;
+        break;
+      case "ts":
+        index = TS;
+        break;
+      case "tv":
+        index = TV;
+        break;
+      case "tl":
+        index = TL;
+        break;
+      default:
+        return;
+    }
+
+    synchronized (pendingLock) {
+      double now = Timer.getFPGATimestamp();
+      completeFrame(now);
+      if (!framePending) {
+        framePending = true;
+        frameArrival = now;
+      }
+      lastUpdate = now;
+      values[index] = value.getDouble();
+    }
+  }
+
+  /**
+   * Publish the frame being received if no value has arrived for FRAME_GAP,
+   * so readers see it without waiting for the camera's next frame.
+   */
+  private void completeFrame() {
+    synchronized (pendingLock) {
+      completeFrame(Timer.getFPGATimestamp());
+    }
+  }
+
+  //call with pendingLock held
+  private void completeFrame(double now) {
+    if (!framePending || now - lastUpdate < FRAME_GAP) {
+      return;
+    }
+    framePending = false;
+
+    frames.publish(new LimelightFrame(nextFrameId++, frameArrival,
+        (values[TL] + CAPTURE_LATENCY_MS) / 1000.0,
+        values[TV] == 1,
+        values[TX],
+        values[TY],
+        values[TA],
+        values[TS]));
+  }
+
+  /**
+   * @return The newest camera frame, a frame with ID -1 and no target if none
+   *         has arrived yet
+   */
+  public LimelightFrame getLatestFrame() {
+    completeFrame();
+    LimelightFrame frame = frames.getLatest();
+    return frame != null ? frame : NO_FRAME;
+  }
+
+  /**
+   * @return The frame with this ID, null if it has not arrived or is too old
+   */
+  public LimelightFrame getFrame(long id) {
+    completeFrame();
+    return frames.get(id);
+  }
+
+  /**
+   * @return The oldest frame still held that is newer than lastId, for
+   *         consumers that want every frame; null if there is none
+   */
+  public LimelightFrame getNextFrame(long lastId) {
+    completeFrame();
+    return frames.getNext(lastId);
   }
 
   private void setMode(int cameraMode, int ledMode, int pipeline) { 
@@ -127,50 +303,80 @@ public class LimelightSubsystem extends SubsystemBase {
 
   //returns horizontal offset from Crosshair to target (-27 degrees to 27 degrees)
   public double getXOffset() {
-    return tx.getDouble(-1);
+    return getLatestFrame().getXOffset();
   }
 
   //vertical offset from crosshair to target (-20.5 degrees to 20.5 degrees)
   public double getYOffset() {
-    return ty.getDouble(-1);
+    return getLatestFrame().getYOffset();
   }
 
   public void setTolerance(double tolerance) {
     this.tolerance = tolerance;
   }
   public boolean aligned() {
-    return MathUtils.WithinRange(getXOffset(), -tolerance, tolerance);
+    return aligned(getXOffset());
+  }
+
+  //whether an aim offset derived from tx (e.g. motion compensated) is within tolerance
+  public boolean aligned(double xOffset) {
+    return MathUtils.WithinRange(xOffset, -tolerance, tolerance);
   }
 
   //returns the rotation (-90 degrees to 0 degrees)
   public double getSkew() {
-    return ts.getDouble(-1);
+    return getLatestFrame().getSkew();
+  }
+
+  //Time from image capture to the values being published, in seconds. The
+  //pipeline latency plus at least 11ms of image capture latency.
+  public double getLatency() {
+    return getLatestFrame().getLatency();
   }
 
   //return if a valid target is in view of the camera
   public boolean getValidTarget() {
-    return tv.getDouble(-1) == 1;
+    return getLatestFrame().hasTarget();
   }
 
   //get an estimated distance to the target
   public double getDistance() {
+    return getDistance(getLatestFrame());
+  }
+
+  //estimated distance to the target in a particular frame
+  public double getDistance(LimelightFrame frame) {
     double distance = 0;
-    double angleOftarget = getYOffset();
+    double angleOftarget = frame.getYOffset();
     distance = (target_Height - camera_Height) / Math.tan(Math.toRadians(camera_Angle + angleOftarget));
     return distance; 
   }
 
+  //filtered distance to the target, see setRangeFilter
   public double getAverageDistance()
   {
-    double result = 0;
+    return rangeFilter.getRange();
+  }
 
-    for ( int n = 0; n < distanceBufferSize; n++) {
-      result += distanceBuffer[n];
+  //variance of the filtered distance now (m^2), infinite if the target has not
+  //been seen recently
+  public double getDistanceVariance() {
+    double now = Timer.getFPGATimestamp();
+    if (now - lastRangeTimestamp > RANGE_TIMEOUT) {
+      return Double.POSITIVE_INFINITY;
     }
+    return rangeFilter.getVariance(now);
+  }
 
-    result /= distanceBufferSize;
+  public double getDistanceStdDev() {
+    return Math.sqrt(getDistanceVariance());
+  }
 
-    return result;
+  //replace the distance filter (KalmanRangeFilter by default), e.g. with a
+  //MovingAverageRangeFilter or MedianRangeFilter
+  public void setRangeFilter(RangeFilter filter) {
+    rangeFilter = filter;
+    lastRangeTimestamp = Double.NEGATIVE_INFINITY;
   }
 
   /**  
@@ -1,14 +1,29 @@
 package frc.robot.subsystems;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Map;
 
+import edu.wpi.first.math.Nat;
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.controller.LinearQuadraticRegulator;
+import edu.wpi.first.math.estimator.KalmanFilter;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.system.LinearSystem;
+import edu.wpi.first.math.system.LinearSystemLoop;
+import edu.wpi.first.math.system.plant.LinearSystemId;
 import edu.wpi.first.networktables.NetworkTableEntry;
+import edu.wpi.first.util.datalog.StringLogEntry;
+import edu.wpi.first.wpilibj.DataLogManager;
 import edu.wpi.first.wpilibj.DigitalInput;
 import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.Filesystem;
+import edu.wpi.first.wpilibj.Notifier;
 import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj.shuffleboard.BuiltInWidgets;
 import edu.wpi.first.wpilibj.shuffleboard.Shuffleboard;
 import edu.wpi.first.wpilibj.shuffleboard.ShuffleboardTab;
+import edu.wpi.first.wpilibj.smartdashboard.SendableChooser;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
 
 import com.revrobotics.CANSparkMax;
@@ -20,6 +35,8 @@ import com.revrobotics.CANSparkMaxLowLevel.MotorType;
 import com.revrobotics.CANSparkMaxLowLevel.PeriodicFrame;
 
 import frc.robot.utils.FiringSolution;
+import frc.robot.utils.FiringTableRanger;
+import frc.robot.utils.FlywheelEstimator;
 import frc.robot.utils.MathUtils;
 import frc.robot.utils.Ranger;
 
@@ -32,6 +49,11 @@ public class ShooterSubsystem extends SubsystemBase {
         STOPPING
     }
 
+    public enum ControlMode {
+        ONBOARD, // SPARK MAX velocity PID
+        RIO // state space loop on the roboRIO commanding voltage
+    }
+
     // Subsystem Constants
     private static final int IDLE_CURRENT = 10; 
     private static final int MAX_CURRENT = 60;
@@ -47,6 +69,12 @@ public class ShooterSubsystem extends SubsystemBase {
     private static final double speedFirstTolerance = 0.02;
     private static final double speedSecondTolerance = 0.04;
 
+    // Flywheel estimator tuning: filter gains, and how long the wheel must be
+    // predicted to stay within tolerance to count as ready.
+    private static final double SPEED_FILTER_ALPHA = 0.5;
+    private static final double SPEED_FILTER_BETA = 0.1;
+    private static final double SPEED_SETTLE_TIME = 0.1;
+
     private static final double MAX_HOOD_ANGLE = 85;
     private static final double MIN_HOOD_ANGLE = 67;
     private static final double HOOD_LOWER_LIMIT = 0;
@@ -74,7 +102,42 @@ public class ShooterSubsystem extends SubsystemBase {
     private static final double kHoodMaxOutput = 1;
     private static final double kHoodMinOutput = -1;
 
+    // Flywheel plant for RIO control: kS (volts), kV (volts per RPM) and kA
+    // (volts per RPM/second), speeds in shooter RPM. Identified by ShooterTuner's
+    // characterization command, which writes them to this file in the operating
+    // directory. Without it the RIO control mode is not offered.
+    public static final String FLYWHEEL_GAINS_FILE = "shooter_gains.csv";
+    private static final double MAX_VOLTAGE = 12.0;
+
+    // RIO control loop tuning
+    private static final double RIO_CONTROL_PERIOD = 0.005;
+    private static final double RIO_MODEL_STDDEV = 30; // RPM, how much to trust the model
+    private static final double RIO_MEASUREMENT_STDDEV = 40; // RPM, how much to trust the encoder
+
+    // SPARK MAX velocity filtering while in RIO control. The defaults (32 ms
+    // period, 8 deep average) delay the measurement by over 100 ms, too slow
+    // for a 5 ms loop; these trade that for some noise. The remaining delay,
+    // half the averaging window plus half the status frame period, is
+    // compensated in the LQR gain.
+    private static final int RIO_MEASUREMENT_PERIOD_MS = 16;
+    private static final int RIO_AVERAGE_DEPTH = 2;
+    private static final int RIO_STATUS_PERIOD_MS = 5;
+    private static final double RIO_MEASUREMENT_DELAY =
+            (RIO_MEASUREMENT_PERIOD_MS * RIO_AVERAGE_DEPTH / 2.0 + RIO_STATUS_PERIOD_MS / 2.0) / 1000.0;
+    private static final int DEFAULT_MEASUREMENT_PERIOD_MS = 32;
+    private static final int DEFAULT_AVERAGE_DEPTH = 8;
+    private static final double RIO_SPEED_TOLERANCE = 50; // RPM, LQR state excursion
+    private static final double RIO_VOLTAGE_TOLERANCE = MAX_VOLTAGE; // LQR control effort
+
+    // A shot is a drop this far below target from a ready wheel with the same
+    // target, recovery ends when the wheel is back within tolerance.
+    private static final double SHOT_DROP_RPM = 150;
+    // Targets this close count as the same setpoint, a vision ranged target
+    // moves a little every loop as the filtered range settles.
+    private static final double SAME_TARGET_RPM = SHOT_DROP_RPM / 2;
+
     private Ranger ranger;
+    private final FiringSolution rangeSolution = new FiringSolution(); // reused by setRange
     private CANSparkMax shooterMotor1;
     private CANSparkMax shooterMotor2;
     private RelativeEncoder shooterEncoder;
@@ -91,6 +154,30 @@ public class ShooterSubsystem extends SubsystemBase {
     private double speedAdjust = 0; // TODO speed adjust
     private double speedError;
     private double speedErrorPercent;
+    private final FlywheelEstimator speedEstimator = new FlywheelEstimator(
+            SPEED_FILTER_ALPHA, SPEED_FILTER_BETA, speedTolerance, SPEED_SETTLE_TIME);
+
+    // RIO control, the loop runs on rioNotifier and is guarded by synchronizing on it.
+    // rioLoop is null if the flywheel has not been characterized.
+    private volatile ControlMode controlMode = ControlMode.ONBOARD;
+    private final LinearSystemLoop<N1, N1, N1> rioLoop;
+    private final double rioStaticVoltage;
+    private final Notifier rioNotifier;
+    private volatile double rioTargetSpeed = 0;
+    private final SendableChooser<ControlMode> controlModeChooser = new SendableChooser<ControlMode>();
+
+    // recovery time measurement
+    private boolean wasAtSpeed = false;
+    private double readySpeed = Double.NaN; // target the wheel was last ready at
+    private double shotStartTime = Double.NaN;
+    private double lastRecoveryTime = 0;
+    private ControlMode shotControlMode;
+    private double shotTargetSpeed;
+    // one record per shot in the on-robot data log, written off the main thread
+    private final StringLogEntry recoveryLog = new StringLogEntry(DataLogManager.getLog(),
+            "/shooter/recovery", "control mode,target rpm,recovery s");
+    private int shotCount = 0;
+    private double lastShotTime = Double.NaN;
 
     private boolean parkingHood = true;
     private double currentAngle = 0;
@@ -121,6 +208,9 @@ public class ShooterSubsystem extends SubsystemBase {
     private NetworkTableEntry alignedWithHubEntry;
     private NetworkTableEntry shooterMotorCurrentEntry;
     private NetworkTableEntry hoodMotorCurrentEntry;
+    private NetworkTableEntry accelerationEntry;
+    private NetworkTableEntry timeToReadyEntry;
+    private NetworkTableEntry recoveryTimeEntry;
  
     /** Creates a new instance of the Shooter subsystem. */
     public ShooterSubsystem(int shooterMotor1CANID, int shooterMotor2CANID, int hoodMotorCANID, int hoodLimitDio,
@@ -170,12 +260,37 @@ public class ShooterSubsystem extends SubsystemBase {
         hoodPidController.setFF(kHoodFF);
         hoodPidController.setOutputRange(kHoodMinOutput, kHoodMaxOutput);
 
+        double[] gains = loadFlywheelGains(new File(Filesystem.getOperatingDirectory(), FLYWHEEL_GAINS_FILE));
+        if (gains != null) {
+            LinearSystem<N1, N1, N1> plant = LinearSystemId.identifyVelocitySystem(gains[1], gains[2]);
+            KalmanFilter<N1, N1, N1> observer = new KalmanFilter<>(Nat.N1(), Nat.N1(), plant,
+                    VecBuilder.fill(RIO_MODEL_STDDEV), VecBuilder.fill(RIO_MEASUREMENT_STDDEV), RIO_CONTROL_PERIOD);
+            LinearQuadraticRegulator<N1, N1, N1> controller = new LinearQuadraticRegulator<>(plant,
+                    VecBuilder.fill(RIO_SPEED_TOLERANCE), VecBuilder.fill(RIO_VOLTAGE_TOLERANCE), RIO_CONTROL_PERIOD);
+            controller.latencyCompensate(plant, RIO_CONTROL_PERIOD, RIO_MEASUREMENT_DELAY);
+            rioLoop = new LinearSystemLoop<>(plant, controller, observer, MAX_VOLTAGE, RIO_CONTROL_PERIOD);
+            rioStaticVoltage = gains[0];
+        } else {
+            rioLoop = null;
+            rioStaticVoltage = 0;
+        }
+        rioNotifier = new Notifier(this::runRioControl);
+        rioNotifier.setName("ShooterControl");
+
         initTelemetry();
     }
 
     @Override
     public void periodic() {
         currentSpeed = shooterEncoder.getVelocity();
+        speedEstimator.update(currentSpeed, Timer.getFPGATimestamp());
+
+        ControlMode selectedMode = controlModeChooser.getSelected();
+        if (selectedMode != null && selectedMode != controlMode) {
+            setControlMode(selectedMode);
+        }
+
+        updateRecoveryTime();
         speedError = currentSpeed - targetSpeed;
         speedErrorPercent = targetSpeed > 0 ? speedError / targetSpeed : 0;
 
@@ -216,7 +331,20 @@ public class ShooterSubsystem extends SubsystemBase {
 
         return atSpeed;
         */
-        return atTargetSpeed();
+        return targetSpeed > 0 && speedEstimator.isReady(targetSpeed);
+    }
+
+    /**
+     * Predicted time until ready() becomes true, so a shot can be started early
+     * enough for the cargo to reach the flywheel just as it is at speed.
+     *
+     * @return Seconds, 0 if ready now, infinity if the wheel is not converging
+     */
+    public double getTimeToReady() {
+        if (targetSpeed <= 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return speedEstimator.getTimeToReady(targetSpeed);
     }
 
     // ---------------------------------------------------------------------------
@@ -249,13 +377,17 @@ public class ShooterSubsystem extends SubsystemBase {
     public void setRange(double range) {
         currentRange = range;
 
-        FiringSolution solution = ranger.getFiringSolution(currentRange);
-        setSpeed(solution.speed);
-        setAngle(solution.angle);
+        ranger.getFiringSolution(currentRange, rangeSolution);
+        setSpeed(rangeSolution.speed);
+        setAngle(rangeSolution.angle);
     }
 
     public void setRange(String range) {
         FiringSolution solution = ranger.getFiringSolution(range);
+        if (solution == null) {
+            DriverStation.reportError("No firing solution for \"" + range + "\", shooter left as it was", false);
+            return;
+        }
         setSpeed(solution.speed);
         setAngle(solution.angle);
     }
@@ -272,7 +404,45 @@ public class ShooterSubsystem extends SubsystemBase {
             motorState = MotorState.STOPPED;
         }
 
-        shooterPidController.setReference(targetSpeed, ControlType.kVelocity);
+        if (controlMode == ControlMode.ONBOARD) {
+            shooterPidController.setReference(targetSpeed, ControlType.kVelocity);
+        } else {
+            rioTargetSpeed = targetSpeed;
+        }
+    }
+
+    public double getTargetSpeed() {
+        return targetSpeed;
+    }
+
+    public double getCurrentSpeed() {
+        return currentSpeed;
+    }
+
+    public double getTargetAngle() {
+        return targetAngle;
+    }
+
+    /**
+     * @return Hood angle in degrees measured by the hood encoder
+     */
+    public double getCurrentAngle() {
+        return currentAngle;
+    }
+
+    /**
+     * @return Number of shots seen as a speed drop from a ready wheel since the
+     *         robot started
+     */
+    public int getShotCount() {
+        return shotCount;
+    }
+
+    /**
+     * @return FPGA time of the last speed drop, NaN if there has not been one
+     */
+    public double getLastShotTime() {
+        return lastShotTime;
     }
 
     public void increaseSpeed() {
@@ -305,6 +475,134 @@ public class ShooterSubsystem extends SubsystemBase {
         return MathUtils.WithinDelta(currentSpeed, targetSpeed, delta);
     }
 
+    // ---------------------------------------------------------------------------
+    // RIO control methods
+    // ---------------------------------------------------------------------------
+
+    public ControlMode getControlMode() {
+        return controlMode;
+    }
+
+    /**
+     * Switch between the SPARK MAX velocity PID and the state space loop on the
+     * RIO. The current target speed carries over.
+     */
+    public void setControlMode(ControlMode mode) {
+        synchronized (rioNotifier) {
+            if (mode == controlMode) {
+                return;
+            }
+            if (mode == ControlMode.RIO && rioLoop == null) {
+                System.out.println("Shooter RIO control needs " + FLYWHEEL_GAINS_FILE + " from ShooterTuner");
+                return;
+            }
+            controlMode = mode;
+
+            if (mode == ControlMode.RIO) {
+                // The loop needs fresh, lightly filtered velocity readings at its own rate.
+                shooterEncoder.setMeasurementPeriod(RIO_MEASUREMENT_PERIOD_MS);
+                shooterEncoder.setAverageDepth(RIO_AVERAGE_DEPTH);
+                shooterMotor1.setPeriodicFramePeriod(PeriodicFrame.kStatus1, RIO_STATUS_PERIOD_MS);
+                rioLoop.reset(VecBuilder.fill(shooterEncoder.getVelocity()));
+                rioTargetSpeed = targetSpeed;
+                rioNotifier.startPeriodic(RIO_CONTROL_PERIOD);
+            } else {
+                rioNotifier.stop();
+                shooterMotor1.setPeriodicFramePeriod(PeriodicFrame.kStatus1, 20);
+                shooterEncoder.setMeasurementPeriod(DEFAULT_MEASUREMENT_PERIOD_MS);
+                shooterEncoder.setAverageDepth(DEFAULT_AVERAGE_DEPTH);
+                shooterPidController.setReference(targetSpeed, ControlType.kVelocity);
+            }
+        }
+        System.out.println("Shooter control mode " + mode);
+    }
+
+    /**
+     * One step of the RIO flywheel loop: Kalman filter correction with the
+     * encoder velocity, then LQR voltage towards the target. Runs on rioNotifier.
+     */
+    private void runRioControl() {
+        synchronized (rioNotifier) {
+            if (controlMode != ControlMode.RIO) {
+                return;
+            }
+
+            double measured = shooterEncoder.getVelocity();
+            double target = rioTargetSpeed;
+            if (target <= 0) {
+                rioLoop.reset(VecBuilder.fill(measured));
+                shooterMotor1.setVoltage(0);
+                return;
+            }
+
+            rioLoop.setNextR(VecBuilder.fill(target));
+            rioLoop.correct(VecBuilder.fill(measured));
+            rioLoop.predict(RIO_CONTROL_PERIOD);
+
+            // The flywheel coasts down rather than being braked, like the onboard PID.
+            double voltage = rioLoop.getU(0) + rioStaticVoltage;
+            shooterMotor1.setVoltage(MathUtils.ClipToRange(voltage, 0, MAX_VOLTAGE));
+        }
+    }
+
+    /**
+     * Time how long the wheel takes to get back to speed after each shot so
+     * the control modes can be compared. Each shot is logged to the data log
+     * with the control mode and target it was fired at, the log entry carries
+     * the time.
+     */
+    private void updateRecoveryTime() {
+        double now = Timer.getFPGATimestamp();
+        boolean atSpeed = atTargetSpeed();
+
+        if (motorState == MotorState.STOPPED || motorState == MotorState.STOPPING) {
+            shotStartTime = Double.NaN;
+        } else if (Double.isNaN(shotStartTime)) {
+            // a raised setpoint also leaves the wheel below target, only count
+            // a drop at about the speed the wheel was ready for
+            if (wasAtSpeed && Math.abs(targetSpeed - readySpeed) < SAME_TARGET_RPM
+                    && currentSpeed < targetSpeed - SHOT_DROP_RPM) {
+                shotStartTime = now;
+                lastShotTime = now;
+                shotCount++;
+                shotControlMode = controlMode;
+                shotTargetSpeed = targetSpeed;
+            }
+        } else if (atSpeed) {
+            lastRecoveryTime = now - shotStartTime;
+            shotStartTime = Double.NaN;
+            recoveryLog.append(String.format("%s,%.0f,%.3f", shotControlMode, shotTargetSpeed, lastRecoveryTime));
+        }
+
+        wasAtSpeed = atSpeed;
+        if (atSpeed) {
+            readySpeed = targetSpeed;
+        }
+    }
+
+    /**
+     * Read the flywheel gains written by ShooterTuner, one line of kS, kV, kA.
+     *
+     * @return kS, kV, kA or null if the flywheel has not been characterized
+     */
+    private static double[] loadFlywheelGains(File file) {
+        if (!file.exists()) {
+            System.out.println("No " + file + ", shooter RIO control is unavailable");
+            return null;
+        }
+        try {
+            double[][] rows = FiringTableRanger.readRows(file, "kS", "kV", "kA");
+            if (rows.length == 1 && rows[0][1] > 0 && rows[0][2] > 0) {
+                System.out.printf("Shooter flywheel gains kS=%f kV=%f kA=%f%n", rows[0][0], rows[0][1], rows[0][2]);
+                return rows[0];
+            }
+            System.out.println("Ignoring " + file + ", expected one line of positive kS, kV, kA");
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Could not load " + file + ": " + e.getMessage());
+        }
+        return null;
+    }
+
     // ---------------------------------------------------------------------------
     // Hood Control methods
     // ---------------------------------------------------------------------------
@@ -463,6 +761,27 @@ public class ShooterSubsystem extends SubsystemBase {
                 .withPosition(9, 0)
                 .withSize(1, 1)
                 .getEntry();
+
+        accelerationEntry = shooterTab.add("Acceleration", 0)
+                .withPosition(0, 4)
+                .withSize(1, 1)
+                .getEntry();
+        timeToReadyEntry = shooterTab.add("Time To Ready", 0)
+                .withPosition(1, 4)
+                .withSize(1, 1)
+                .getEntry();
+        recoveryTimeEntry = shooterTab.add("Recovery Time", 0)
+                .withPosition(2, 4)
+                .withSize(1, 1)
+                .getEntry();
+
+        controlModeChooser.setDefaultOption("Onboard", ControlMode.ONBOARD);
+        if (rioLoop != null) {
+            controlModeChooser.addOption("RIO", ControlMode.RIO);
+        }
+        shooterTab.add("Control Mode", controlModeChooser)
+                .withPosition(3, 4)
+                .withSize(2, 1);
     }
 
     private void updateTelemetry() {
@@ -474,6 +793,9 @@ public class ShooterSubsystem extends SubsystemBase {
         currentRangeEntry.setNumber(currentRange);
         currentXEntry.setNumber(currentXOffset);
         readyToShootEntry.forceSetBoolean(ready());
+        accelerationEntry.setNumber(speedEstimator.getAcceleration());
+        timeToReadyEntry.setNumber(Math.min(getTimeToReady(), 10));
+        recoveryTimeEntry.setNumber(lastRecoveryTime);
         alignedWithHubEntry.setBoolean(aligned);
 
         currentAngleEntry.setNumber(currentAngle);
@@ -0,0 +1,109 @@
+package frc.robot.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock free single producer, single consumer ring of beam break edges. The
+ * producer is an interrupt thread, the consumer the main loop. Entries are
+ * kept in parallel primitive arrays and read into a caller supplied Event, so
+ * neither side allocates.
+ *
+ * A full queue drops the new edge and counts it, the consumer can then resync
+ * from the sensor's current state.
+ */
+public class BeamBreakQueue {
+
+    /**
+     * One edge, filled in by poll().
+     */
+    public static class Event {
+        public double timestamp; // FPGA time of the edge in seconds
+        public double position; // feed encoder position at the edge
+        public boolean blocked; // true if the beam was broken, false if it cleared
+    }
+
+    private final int mask;
+    private final double[] timestamps;
+    private final double[] positions;
+    private final boolean[] blocked;
+
+    // head is only written by the consumer and tail only by the producer; each
+    // publishes its slots to the other with an ordered store
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @param capacity Number of edges held, rounded up to a power of two
+     */
+    public BeamBreakQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mask = size - 1;
+        timestamps = new double[size];
+        positions = new double[size];
+        blocked = new boolean[size];
+    }
+
+    /**
+     * Add an edge. Only call from the producer thread.
+     *
+     * @return False if the queue was full and the edge was dropped
+     */
+    public boolean offer(double timestamp, double position, boolean isBlocked) {
+        long t = tail.get();
+        if (t - head.get() > mask) {
+            dropped.incrementAndGet();
+            return false;
+        }
+
+        int index = (int) (t & mask);
+        timestamps[index] = timestamp;
+        positions[index] = position;
+        blocked[index] = isBlocked;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+
+    /**
+     * @return Timestamp of the oldest edge, NaN if there is none. Only call from
+     *         the consumer thread.
+     */
+    public double peekTimestamp() {
+        long h = head.get();
+        if (h == tail.get()) {
+            return Double.NaN;
+        }
+        return timestamps[(int) (h & mask)];
+    }
+
+    /**
+     * Remove the oldest edge. Only call from the consumer thread.
+     *
+     * @param event Filled in with the edge
+     * @return False if the queue was empty
+     */
+    public boolean poll(Event event) {
+        long h = head.get();
+        if (h == tail.get()) {
+            return false;
+        }
+
+        int index = (int) (h & mask);
+        event.timestamp = timestamps[index];
+        event.position = positions[index];
+        event.blocked = blocked[index];
+        head.lazySet(h + 1);
+        return true;
+    }
+
+    /**
+     * @return Number of edges dropped because the queue was full
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+}
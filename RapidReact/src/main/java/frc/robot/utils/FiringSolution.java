@@ -4,6 +4,9 @@ public class FiringSolution {
     public double speed;
     public double angle;
 
+    public FiringSolution() {
+    }
+
     public FiringSolution(int speed, double angle) {
         this.speed = speed;
         this.angle = angle;
@@ -0,0 +1,240 @@
+package frc.robot.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import edu.wpi.first.networktables.NetworkTableEntry;
+import edu.wpi.first.wpilibj.Filesystem;
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+
+/**
+ * Ranger whose shots are loaded from a CSV file in the deploy directory, so the
+ * table can be retuned at an event without rebuilding the robot code. A table
+ * tuned on the robot (see ShotCaptureCommand) is written to the operating
+ * directory instead, where deploys don't overwrite it, and is used in
+ * preference to the deployed one while it exists. Delete it to go back to the
+ * deployed table.
+ *
+ * The file is watched from a low priority background thread and reloaded when
+ * it changes or when "Reload Firing Table" is set on the dashboard. Each load
+ * builds a new, immutable SplineRanger and swaps it in with a single volatile
+ * write, so the shooter always sees either the whole old table or the whole
+ * new one. A file that fails to parse is reported and the current table kept.
+ *
+ * File format, one shot per line, '#' starts a comment:
+ *
+ *   distance (meters), hood angle (degrees), flywheel speed (RPM)
+ */
+public class FiringTableRanger implements Ranger {
+
+    public static final String DEFAULT_FILE = "firing_table.csv";
+
+    // how often the file and the reload entry are checked, in milliseconds
+    private static final long WATCH_PERIOD_MS = 500;
+
+    private final File deployedFile;
+    private final File tunedFile;
+    private final NetworkTableEntry reloadEntry;
+    private final NetworkTableEntry statusEntry;
+    private final ScheduledExecutorService watcher;
+
+    private volatile SplineRanger table;
+    private File loadedFile;
+    private long loadedModified;
+
+    public FiringTableRanger() {
+        this(new File(Filesystem.getDeployDirectory(), DEFAULT_FILE),
+                new File(Filesystem.getOperatingDirectory(), DEFAULT_FILE));
+    }
+
+    /**
+     * @param deployedFile Table shipped with the robot code
+     * @param tunedFile    Table tuned on the robot, used instead of the
+     *                     deployed one if it exists
+     */
+    public FiringTableRanger(File deployedFile, File tunedFile) {
+        this.deployedFile = deployedFile;
+        this.tunedFile = tunedFile;
+
+        reloadEntry = SmartDashboard.getEntry("Reload Firing Table");
+        reloadEntry.setBoolean(false);
+        statusEntry = SmartDashboard.getEntry("Firing Table");
+
+        // Start with the built in shots so there is always a table, even if the
+        // file is missing or broken.
+        table = new SplineRanger();
+        reload();
+
+        watcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "FiringTableWatcher");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        watcher.scheduleWithFixedDelay(this::checkForChanges, WATCH_PERIOD_MS, WATCH_PERIOD_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    public FiringSolution getFiringSolution(double range) {
+        return table.getFiringSolution(range);
+    }
+
+    public FiringSolution getFiringSolution(String name) {
+        return table.getFiringSolution(name);
+    }
+
+    @Override
+    public void getFiringSolution(double range, FiringSolution solution) {
+        table.getFiringSolution(range, solution);
+    }
+
+    /**
+     * @return The file tables tuned on the robot should be written to
+     */
+    public File getTunedFile() {
+        return tunedFile;
+    }
+
+    // the tuned table if there is one, otherwise the deployed table
+    private File getActiveFile() {
+        return tunedFile.exists() ? tunedFile : deployedFile;
+    }
+
+    private void checkForChanges() {
+        File file = getActiveFile();
+        if (reloadEntry.getBoolean(false)) {
+            reloadEntry.setBoolean(false);
+            reload();
+        } else if (!file.equals(loadedFile) || file.lastModified() != loadedModified) {
+            reload();
+        }
+    }
+
+    /**
+     * Load the file and switch to it if it is valid.
+     *
+     * @return True if the new table is in use
+     */
+    public synchronized boolean reload() {
+        File file = getActiveFile();
+        loadedFile = file;
+        loadedModified = file.lastModified();
+
+        try {
+            double[][] shots = read(file);
+            SplineRanger newTable = new SplineRanger(
+                    column(shots, 0), column(shots, 2), column(shots, 1));
+            table = newTable;
+
+            statusEntry.setString("Loaded " + shots.length + " shots from " + file.getName());
+            System.out.println("Loaded firing table " + file + " with " + shots.length + " shots");
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            statusEntry.setString("Error: " + e.getMessage());
+            System.out.println("Keeping current firing table, could not load " + file + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Read a firing table file.
+     *
+     * @return One row per shot: distance, angle, speed
+     */
+    public static double[][] read(File file) throws IOException {
+        return readRows(file, "distance", "angle", "speed");
+    }
+
+    /**
+     * Read a CSV file of numbers in the firing table format, '#' starts a
+     * comment.
+     *
+     * @param columns Name of each column, for error messages
+     * @return One row per line
+     */
+    public static double[][] readRows(File file, String... columns) throws IOException {
+        List<double[]> rows = new ArrayList<>();
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                int comment = line.indexOf('#');
+                if (comment >= 0) {
+                    line = line.substring(0, comment);
+                }
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+
+                String[] fields = line.split(",");
+                if (fields.length != columns.length) {
+                    throw new IllegalArgumentException(
+                            "line " + lineNumber + ": expected " + String.join(", ", columns));
+                }
+                double[] row = new double[columns.length];
+                for (int i = 0; i < columns.length; i++) {
+                    try {
+                        row[i] = Double.parseDouble(fields[i].trim());
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("line " + lineNumber + ": " + e.getMessage());
+                    }
+                }
+                rows.add(row);
+            }
+        }
+
+        return rows.toArray(new double[rows.size()][]);
+    }
+
+    /**
+     * Write a firing table file, keeping the previous one next to it as .bak.
+     * A FiringTableRanger watching the file picks the new table up by itself.
+     *
+     * @param shots One row per shot: distance, angle, speed
+     * @param note  Comment written at the top of the file
+     */
+    public static void write(File file, double[][] shots, String note) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        try (PrintWriter writer = new PrintWriter(new FileWriter(temporary))) {
+            writer.println("# " + note);
+            writer.println("#");
+            writer.println("# distance (m), hood angle (deg), flywheel speed (RPM)");
+            for (double[] shot : shots) {
+                writer.printf("%.3f, %.2f, %.0f%n", shot[0], shot[1], shot[2]);
+            }
+        }
+
+        if (file.exists()) {
+            File backup = new File(file.getPath() + ".bak");
+            backup.delete();
+            if (!file.renameTo(backup)) {
+                temporary.delete();
+                throw new IOException("Could not back up " + file + " to " + backup);
+            }
+        }
+        // Rename so the watcher never reads a partly written file.
+        if (!temporary.renameTo(file)) {
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    private static double[] column(double[][] table, int column) {
+        double[] values = new double[table.length];
+        for (int i = 0; i < table.length; i++) {
+            values[i] = table[i][column];
+        }
+        return values;
+    }
+}
@@ -0,0 +1,111 @@
+package frc.robot.utils;
+
+/**
+ * Tracks flywheel velocity and acceleration from the encoder with an
+ * alpha-beta filter, and uses them to predict when the wheel will be settled at
+ * its target speed.
+ *
+ * Under closed loop control the wheel approaches its target roughly
+ * exponentially, so the ratio of the remaining error to the current
+ * acceleration gives the time constant of the approach and from that the time
+ * until the error is inside the tolerance. A wheel that is inside the tolerance
+ * but still accelerating hard will overshoot out of it, so it only counts as
+ * ready if it is also predicted to still be inside the tolerance a little later.
+ */
+public class FlywheelEstimator {
+
+    private final double alpha;
+    private final double beta;
+    private final double tolerance;
+    private final double settleTime;
+
+    private double velocity;
+    private double acceleration;
+    private double lastTimestamp = Double.NaN;
+
+    /**
+     * @param alpha      Velocity gain of the filter, 0..1
+     * @param beta       Acceleration gain of the filter, 0..1
+     * @param tolerance  Allowed difference from the target speed, in the units of
+     *                   the measurements
+     * @param settleTime Seconds the wheel must be predicted to stay within
+     *                   tolerance to count as ready
+     */
+    public FlywheelEstimator(double alpha, double beta, double tolerance, double settleTime) {
+        this.alpha = alpha;
+        this.beta = beta;
+        this.tolerance = tolerance;
+        this.settleTime = settleTime;
+    }
+
+    /**
+     * @param measuredVelocity Encoder velocity
+     * @param timestamp        FPGA time of the measurement in seconds
+     */
+    public void update(double measuredVelocity, double timestamp) {
+        if (Double.isNaN(lastTimestamp)) {
+            velocity = measuredVelocity;
+            acceleration = 0;
+            lastTimestamp = timestamp;
+            return;
+        }
+
+        double dt = timestamp - lastTimestamp;
+        if (dt <= 0) {
+            return;
+        }
+        lastTimestamp = timestamp;
+
+        double predicted = velocity + acceleration * dt;
+        double residual = measuredVelocity - predicted;
+        velocity = predicted + alpha * residual;
+        acceleration += beta * residual / dt;
+    }
+
+    public void reset() {
+        lastTimestamp = Double.NaN;
+        velocity = 0;
+        acceleration = 0;
+    }
+
+    public double getVelocity() {
+        return velocity;
+    }
+
+    /**
+     * @return Acceleration in measurement units per second
+     */
+    public double getAcceleration() {
+        return acceleration;
+    }
+
+    /**
+     * @param target Target speed
+     * @return True if the wheel is within tolerance now and predicted to still be
+     *         within it after the settle time
+     */
+    public boolean isReady(double target) {
+        return Math.abs(velocity - target) <= tolerance
+                && Math.abs(velocity + acceleration * settleTime - target) <= tolerance;
+    }
+
+    /**
+     * @param target Target speed
+     * @return Predicted seconds until the wheel is ready, 0 if it already is,
+     *         infinity if it is not converging or is about to overshoot out of
+     *         the tolerance
+     */
+    public double getTimeToReady(double target) {
+        if (isReady(target)) {
+            return 0;
+        }
+
+        double error = target - velocity;
+        if (Math.abs(error) <= tolerance || error * acceleration <= 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+
+        double timeConstant = error / acceleration;
+        return timeConstant * Math.log(Math.abs(error) / tolerance);
+    }
+}
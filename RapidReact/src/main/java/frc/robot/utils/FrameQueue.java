@@ -0,0 +1,93 @@
+package frc.robot.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock free ring of the most recent Limelight frames, looked up by frame ID.
+ *
+ * There is one writer at a time (LimelightSubsystem publishes under a lock)
+ * and any number of readers. Frames are immutable and each slot is swapped with one atomic
+ * write, so a reader gets either a whole frame or nothing. A slot that has
+ * been reused for a newer frame is detected by its ID, so a reader that falls
+ * more than a ring behind gets null instead of the wrong frame.
+ */
+public class FrameQueue {
+
+    private final int mask;
+    private final AtomicReferenceArray<LimelightFrame> slots;
+    private final AtomicLong latestId = new AtomicLong(-1);
+
+    /**
+     * @param capacity Number of frames kept, rounded up to a power of two
+     */
+    public FrameQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mask = size - 1;
+        slots = new AtomicReferenceArray<>(size);
+    }
+
+    /**
+     * Add a frame. IDs must not decrease; publishing a frame with the latest
+     * ID again replaces it. Only call from one thread.
+     */
+    public void publish(LimelightFrame frame) {
+        slots.set((int) (frame.getId() & mask), frame);
+        latestId.set(frame.getId());
+    }
+
+    /**
+     * @return ID of the newest frame, -1 if there has not been one
+     */
+    public long getLatestId() {
+        return latestId.get();
+    }
+
+    /**
+     * @return The newest frame, null if there has not been one
+     */
+    public LimelightFrame getLatest() {
+        while (true) {
+            long id = latestId.get();
+            if (id < 0) {
+                return null;
+            }
+            LimelightFrame frame = get(id);
+            if (frame != null) {
+                return frame;
+            }
+            // overwritten between reading the ID and the slot, try the new one
+        }
+    }
+
+    /**
+     * @return The frame with this ID, null if it has not arrived yet or has
+     *         already been overwritten
+     */
+    public LimelightFrame get(long id) {
+        if (id < 0) {
+            return null;
+        }
+        LimelightFrame frame = slots.get((int) (id & mask));
+        return frame != null && frame.getId() == id ? frame : null;
+    }
+
+    /**
+     * Find the next frame for a reader that wants to see every frame in order.
+     *
+     * @param lastId ID of the last frame the reader handled, -1 for none
+     * @return The oldest frame still held that is newer than lastId, null if
+     *         there is none
+     */
+    public LimelightFrame getNext(long lastId) {
+        long latest = latestId.get();
+        long id = Math.max(lastId + 1, latest - mask);
+        for (; id <= latest; id++) {
+            LimelightFrame frame = get(id);
+            if (frame != null) {
+                return frame;
+            }
+        }
+        return null;
+    }
+}
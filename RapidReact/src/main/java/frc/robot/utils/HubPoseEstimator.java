@@ -0,0 +1,144 @@
+package frc.robot.utils;
+
+/**
+ * Corrects odometry drift using the range and bearing to the hub seen by the
+ * Limelight. The estimate is a field relative offset that is added to the
+ * odometry position, tracked by a Kalman filter per axis:
+ *
+ *   - odometry drift grows the offset variance with distance travelled
+ *   - each hub observation, taken at the pose the robot had when the frame was
+ *     captured, implies a robot position; the difference to the fused position
+ *     corrects the offset weighted by the observation's variance
+ *   - observations further than GATE_SIGMAS standard deviations away are
+ *     rejected as outliers, unless enough are rejected in a row that the
+ *     estimate itself must be wrong, in which case it is reset
+ *
+ * Heading is left to the gyro.
+ */
+public class HubPoseEstimator {
+
+    // Odometry drift, standard deviation in meters per meter travelled.
+    private static final double DRIFT_PER_METER = 0.05;
+
+    // Observation noise, standard deviation in meters at zero range plus per meter of range.
+    private static final double OBSERVATION_BASE_STDDEV = 0.05;
+    private static final double OBSERVATION_STDDEV_PER_METER = 0.05;
+
+    private static final double GATE_SIGMAS = 3;
+    private static final int MAX_CONSECUTIVE_REJECTS = 15;
+
+    // Variance of the offset when the position is not known at all.
+    private static final double UNKNOWN_VARIANCE = 100;
+
+    private final double hubX;
+    private final double hubY;
+    private final double hubRadius;
+    private final double cameraYaw;
+
+    private double offsetX = 0;
+    private double offsetY = 0;
+    private double variance = UNKNOWN_VARIANCE;
+    private int consecutiveRejects = 0;
+    private long version = 0;
+
+    /**
+     * @param hubX      Field position of the hub center in meters
+     * @param hubY      Field position of the hub center in meters
+     * @param hubRadius Distance from the vision target to the hub center in meters
+     * @param cameraYaw Direction the camera faces relative to the robot's +x
+     *                  axis in radians, counter-clockwise positive
+     */
+    public HubPoseEstimator(double hubX, double hubY, double hubRadius, double cameraYaw) {
+        this.hubX = hubX;
+        this.hubY = hubY;
+        this.hubRadius = hubRadius;
+        this.cameraYaw = cameraYaw;
+    }
+
+    /**
+     * Odometry has been reset to a known pose, drop any correction.
+     *
+     * @param known True if the pose is known (e.g. autonomous start), false if
+     *              it is just a guess and vision should take over quickly
+     */
+    public void reset(boolean known) {
+        offsetX = 0;
+        offsetY = 0;
+        variance = known ? 0.01 : UNKNOWN_VARIANCE;
+        consecutiveRejects = 0;
+        version++;
+    }
+
+    /**
+     * Grow the uncertainty of the estimate as the robot moves.
+     *
+     * @param distance Distance travelled in meters since the last call
+     */
+    public void predict(double distance) {
+        double drift = DRIFT_PER_METER * distance;
+        variance = Math.min(UNKNOWN_VARIANCE, variance + drift * drift);
+    }
+
+    /**
+     * Fuse one hub observation.
+     *
+     * @param odometryX       Odometry position at capture time in meters
+     * @param odometryY       Odometry position at capture time in meters
+     * @param heading         Robot heading at capture time in radians
+     * @param range           Distance from the camera to the vision target in meters
+     * @param bearing         Angle from the camera's axis to the target in
+     *                        radians, counter-clockwise positive
+     * @return True if the observation was used, false if it was rejected
+     */
+    public boolean addObservation(double odometryX, double odometryY, double heading, double range, double bearing) {
+        double direction = heading + cameraYaw + bearing;
+        double distance = range + hubRadius;
+        double measuredX = hubX - distance * Math.cos(direction);
+        double measuredY = hubY - distance * Math.sin(direction);
+
+        double innovationX = measuredX - (odometryX + offsetX);
+        double innovationY = measuredY - (odometryY + offsetY);
+
+        double stddev = OBSERVATION_BASE_STDDEV + OBSERVATION_STDDEV_PER_METER * range;
+        double observationVariance = stddev * stddev;
+        double totalVariance = variance + observationVariance;
+
+        double squaredError = innovationX * innovationX + innovationY * innovationY;
+        if (squaredError > GATE_SIGMAS * GATE_SIGMAS * totalVariance) {
+            consecutiveRejects++;
+            if (consecutiveRejects >= MAX_CONSECUTIVE_REJECTS) {
+                // Vision has consistently disagreed, trust it from the next frame on.
+                variance = UNKNOWN_VARIANCE;
+                consecutiveRejects = 0;
+            }
+            return false;
+        }
+
+        double gain = variance / totalVariance;
+        offsetX += gain * innovationX;
+        offsetY += gain * innovationY;
+        variance = (1 - gain) * variance;
+        consecutiveRejects = 0;
+        version++;
+        return true;
+    }
+
+    public double getOffsetX() {
+        return offsetX;
+    }
+
+    public double getOffsetY() {
+        return offsetY;
+    }
+
+    public double getStdDev() {
+        return Math.sqrt(variance);
+    }
+
+    /**
+     * @return Counter that changes every time the offset changes
+     */
+    public long getVersion() {
+        return version;
+    }
+}
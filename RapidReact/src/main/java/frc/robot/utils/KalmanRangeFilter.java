@@ -0,0 +1,98 @@
+package frc.robot.utils;
+
+/**
+ * One dimensional Kalman filter on the range, modelled as a random walk whose
+ * variance grows with time since the last reading (the robot can drive
+ * towards or away from the target between frames).
+ *
+ * Readings further than GATE_SIGMAS standard deviations from the estimate are
+ * rejected as outliers. If enough are rejected in a row the estimate itself is
+ * assumed to be wrong (e.g. the robot was pushed) and it restarts from the
+ * latest reading, with more variance than one reading alone so that a few
+ * more have to agree before the range is trusted again.
+ *
+ * The reported variance keeps growing until the next reading, so a range that
+ * has not been seen for a while is not trusted.
+ */
+public class KalmanRangeFilter implements RangeFilter {
+
+    private static final double GATE_SIGMAS = 3;
+    private static final int MAX_CONSECUTIVE_REJECTS = 5;
+    private static final double RESTART_VARIANCE_SCALE = 4;
+
+    private final double processVariance;
+    private final double measurementVariance;
+
+    private double range = 0;
+    private double variance = Double.POSITIVE_INFINITY;
+    private double lastTimestamp = Double.NaN;
+    private int consecutiveRejects = 0;
+
+    /**
+     * @param processStdDev     How fast the true range can wander, standard
+     *                          deviation in meters per square root second
+     * @param measurementStdDev Noise of a single reading, standard deviation in
+     *                          meters
+     */
+    public KalmanRangeFilter(double processStdDev, double measurementStdDev) {
+        this.processVariance = processStdDev * processStdDev;
+        this.measurementVariance = measurementStdDev * measurementStdDev;
+    }
+
+    @Override
+    public void update(double measurement, double timestamp) {
+        if (Double.isNaN(lastTimestamp)) {
+            restart(measurement, timestamp);
+            return;
+        }
+
+        // predict
+        double dt = Math.max(0, timestamp - lastTimestamp);
+        lastTimestamp = timestamp;
+        variance += processVariance * dt;
+
+        // gate
+        double innovation = measurement - range;
+        double innovationVariance = variance + measurementVariance;
+        if (innovation * innovation > GATE_SIGMAS * GATE_SIGMAS * innovationVariance) {
+            if (++consecutiveRejects >= MAX_CONSECUTIVE_REJECTS) {
+                restart(measurement, timestamp);
+            }
+            return;
+        }
+        consecutiveRejects = 0;
+
+        // correct
+        double gain = variance / innovationVariance;
+        range += gain * innovation;
+        variance *= 1 - gain;
+    }
+
+    private void restart(double measurement, double timestamp) {
+        range = measurement;
+        variance = measurementVariance * RESTART_VARIANCE_SCALE;
+        lastTimestamp = timestamp;
+        consecutiveRejects = 0;
+    }
+
+    @Override
+    public void reset() {
+        range = 0;
+        variance = Double.POSITIVE_INFINITY;
+        lastTimestamp = Double.NaN;
+        consecutiveRejects = 0;
+    }
+
+    @Override
+    public double getRange() {
+        return range;
+    }
+
+    @Override
+    public double getVariance(double timestamp) {
+        if (Double.isNaN(lastTimestamp)) {
+            return variance;
+        }
+        return variance + processVariance * Math.max(0, timestamp - lastTimestamp);
+    }
+}
@@ -0,0 +1,84 @@
+package frc.robot.utils;
+
+/**
+ * One Limelight camera frame: all of the target values the camera published
+ * together, when they arrived at the RIO and how old the image was by then.
+ * Immutable, so a frame can be handed between threads without locking.
+ */
+public class LimelightFrame {
+
+    private final long id;
+    private final double timestamp;
+    private final double latency;
+    private final boolean valid;
+    private final double tx;
+    private final double ty;
+    private final double ta;
+    private final double ts;
+
+    /**
+     * @param id        Sequence number, increasing by one for each new frame
+     * @param timestamp FPGA time the frame arrived, in seconds
+     * @param latency   Time from image capture to publishing, in seconds
+     */
+    public LimelightFrame(long id, double timestamp, double latency, boolean valid,
+            double tx, double ty, double ta, double ts) {
+        this.id = id;
+        this.timestamp = timestamp;
+        this.latency = latency;
+        this.valid = valid;
+        this.tx = tx;
+        this.ty = ty;
+        this.ta = ta;
+        this.ts = ts;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return FPGA time the frame arrived, in seconds
+     */
+    public double getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return Time from image capture to publishing, in seconds
+     */
+    public double getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return FPGA time the image was captured, in seconds
+     */
+    public double getCaptureTimestamp() {
+        return timestamp - latency;
+    }
+
+    public boolean hasTarget() {
+        return valid;
+    }
+
+    // horizontal offset from crosshair to target in degrees
+    public double getXOffset() {
+        return tx;
+    }
+
+    // vertical offset from crosshair to target in degrees
+    public double getYOffset() {
+        return ty;
+    }
+
+    // target area, percent of the image
+    public double getArea() {
+        return ta;
+    }
+
+    // skew or rotation of the target in degrees
+    public double getSkew() {
+        return ts;
+    }
+}
@@ -50,4 +50,17 @@ public class MathUtils {
             return value;
         }
     }
+
+    /**
+     * Smallest signed difference between two angles.
+     * 
+     * @param a - Angle in radians
+     * @param b - Angle in radians
+     * 
+     * @return - a - b wrapped into the range -pi to pi
+     */
+    public static double AngleDifference(double a, double b) {
+
+        return Math.IEEEremainder(a - b, 2 * Math.PI);
+    }
 }
@@ -0,0 +1,105 @@
+package frc.robot.utils;
+
+import java.util.Arrays;
+
+/**
+ * Median of the last N readings, so a single bad reading (a reflection, a
+ * partly hidden target) has no effect at all. The window is also kept sorted
+ * and updated by one insertion step, which is linear in the window size but
+ * has no allocation and, for the handful of readings used here, costs about as
+ * much as a sum.
+ *
+ * The variance is estimated from the median absolute deviation, which ignores
+ * outliers the same way, scaled to the variance of a median of N readings.
+ */
+public class MedianRangeFilter implements RangeFilter {
+
+    // MAD to standard deviation for normally distributed readings
+    private static final double MAD_TO_STDDEV = 1.4826;
+
+    private final double[] window; // in arrival order
+    private final double[] sorted;
+    private final double[] deviations;
+    private int next = 0;
+    private int count = 0;
+
+    public MedianRangeFilter(int size) {
+        window = new double[size];
+        sorted = new double[size];
+        deviations = new double[size];
+    }
+
+    @Override
+    public void update(double range, double timestamp) {
+        int position;
+        if (count == window.length) {
+            // Reuse the slot of the reading leaving the window.
+            position = indexOf(window[next]);
+        } else {
+            position = count++;
+        }
+        window[next] = range;
+        next = (next + 1) % window.length;
+
+        sorted[position] = range;
+        while (position > 0 && sorted[position - 1] > sorted[position]) {
+            swap(position - 1, position);
+            position--;
+        }
+        while (position < count - 1 && sorted[position + 1] < sorted[position]) {
+            swap(position, position + 1);
+            position++;
+        }
+    }
+
+    @Override
+    public void reset() {
+        next = 0;
+        count = 0;
+    }
+
+    @Override
+    public double getRange() {
+        if (count == 0) {
+            return 0;
+        }
+        return median(sorted, count);
+    }
+
+    @Override
+    public double getVariance(double timestamp) {
+        if (count < 3) {
+            return Double.POSITIVE_INFINITY;
+        }
+
+        double median = getRange();
+        for (int i = 0; i < count; i++) {
+            deviations[i] = Math.abs(sorted[i] - median);
+        }
+        Arrays.sort(deviations, 0, count);
+        double stdDev = MAD_TO_STDDEV * median(deviations, count);
+
+        // a median of N normal readings has about pi/2 times the variance of their mean
+        return Math.PI / 2 * stdDev * stdDev / count;
+    }
+
+    private int indexOf(double value) {
+        for (int i = 0; i < count; i++) {
+            if (sorted[i] == value) {
+                return i;
+            }
+        }
+        return count - 1; // not reached, the value is always in the window
+    }
+
+    private void swap(int a, int b) {
+        double temporary = sorted[a];
+        sorted[a] = sorted[b];
+        sorted[b] = temporary;
+    }
+
+    private static double median(double[] values, int count) {
+        int middle = count / 2;
+        return count % 2 == 1 ? values[middle] : (values[middle - 1] + values[middle]) / 2;
+    }
+}
@@ -0,0 +1,69 @@
+package frc.robot.utils;
+
+/**
+ * Mean of the last N readings, kept as a running sum so an update does not
+ * depend on the window size. Until the window has filled the mean is over the
+ * readings so far. The variance is that of the mean, from the spread of the
+ * readings in the window.
+ */
+public class MovingAverageRangeFilter implements RangeFilter {
+
+    private final double[] window;
+    private int next = 0;
+    private int count = 0;
+    private double sum = 0;
+    private double sumOfSquares = 0;
+
+    public MovingAverageRangeFilter(int size) {
+        window = new double[size];
+    }
+
+    @Override
+    public void update(double range, double timestamp) {
+        if (count == window.length) {
+            double oldest = window[next];
+            sum -= oldest;
+            sumOfSquares -= oldest * oldest;
+        } else {
+            count++;
+        }
+
+        window[next] = range;
+        sum += range;
+        sumOfSquares += range * range;
+        next = (next + 1) % window.length;
+
+        // Rebuild the sums once per lap so rounding errors can not build up.
+        if (next == 0) {
+            sum = 0;
+            sumOfSquares = 0;
+            for (double value : window) {
+                sum += value;
+                sumOfSquares += value * value;
+            }
+        }
+    }
+
+    @Override
+    public void reset() {
+        next = 0;
+        count = 0;
+        sum = 0;
+        sumOfSquares = 0;
+    }
+
+    @Override
+    public double getRange() {
+        return count > 0 ? sum / count : 0;
+    }
+
+    @Override
+    public double getVariance(double timestamp) {
+        if (count < 2) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double mean = sum / count;
+        double sampleVariance = Math.max(0, (sumOfSquares - count * mean * mean) / (count - 1));
+        return sampleVariance / count;
+    }
+}
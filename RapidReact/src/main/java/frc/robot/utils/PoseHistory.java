@@ -0,0 +1,148 @@
+package frc.robot.utils;
+
+/**
+ * Fixed capacity ring buffer of timestamped robot states, used to find where
+ * the robot was when a sensor reading (e.g. a camera frame) was captured.
+ *
+ * Entries must be added in increasing timestamp order. Adding never allocates,
+ * looking up a time is a binary search plus interpolation between the two
+ * surrounding entries. Not thread safe, the owner is expected to guard access.
+ */
+public class PoseHistory {
+
+    private final int capacity;
+    private final double[] timestamps;
+    private final double[] x;
+    private final double[] y;
+    private final double[] heading;
+    private final double[] vx;
+    private final double[] vy;
+    private final double[] omega;
+
+    private int head = 0; // index the next entry is written to
+    private int size = 0;
+
+    public PoseHistory(int capacity) {
+        this.capacity = capacity;
+        timestamps = new double[capacity];
+        x = new double[capacity];
+        y = new double[capacity];
+        heading = new double[capacity];
+        vx = new double[capacity];
+        vy = new double[capacity];
+        omega = new double[capacity];
+    }
+
+    /**
+     * Add an entry, overwriting the oldest one once the buffer is full.
+     *
+     * @param timestamp FPGA time in seconds
+     * @param x         Field relative position in meters
+     * @param y         Field relative position in meters
+     * @param heading   Field relative heading in radians
+     * @param vx        Robot relative velocity in meters/second
+     * @param vy        Robot relative velocity in meters/second
+     * @param omega     Angular velocity in radians/second
+     */
+    public void add(double timestamp, double x, double y, double heading, double vx, double vy, double omega) {
+        this.timestamps[head] = timestamp;
+        this.x[head] = x;
+        this.y[head] = y;
+        this.heading[head] = heading;
+        this.vx[head] = vx;
+        this.vy[head] = vy;
+        this.omega[head] = omega;
+
+        head = (head + 1) % capacity;
+        if (size < capacity) {
+            size++;
+        }
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Physical buffer index of the i'th oldest entry.
+    private int index(int i) {
+        return (head - size + i + capacity) % capacity;
+    }
+
+    public double getOldestTimestamp() {
+        return size > 0 ? timestamps[index(0)] : Double.NaN;
+    }
+
+    public double getNewestTimestamp() {
+        return size > 0 ? timestamps[index(size - 1)] : Double.NaN;
+    }
+
+    /**
+     * Look up the robot state at a given time, interpolating between entries.
+     * Times outside the buffer are clamped to the oldest or newest entry.
+     *
+     * @param timestamp FPGA time in seconds
+     * @param sample    Filled in with the state at that time
+     * @return True if the time was within the buffer, false if there are no
+     *         entries or the result was clamped
+     */
+    public boolean sample(double timestamp, Sample sample) {
+        if (size == 0) {
+            return false;
+        }
+
+        if (timestamp <= timestamps[index(0)]) {
+            copy(index(0), index(0), 0, timestamp, sample);
+            return timestamp == timestamps[index(0)];
+        }
+        if (timestamp >= timestamps[index(size - 1)]) {
+            copy(index(size - 1), index(size - 1), 0, timestamp, sample);
+            return timestamp == timestamps[index(size - 1)];
+        }
+
+        // binary search for the last entry at or before timestamp
+        int low = 0;
+        int high = size - 1;
+        while (high - low > 1) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[index(mid)] <= timestamp) {
+                low = mid;
+            } else {
+                high = mid;
+            }
+        }
+
+        int before = index(low);
+        int after = index(high);
+        double span = timestamps[after] - timestamps[before];
+        double fraction = span > 0 ? (timestamp - timestamps[before]) / span : 0;
+        copy(before, after, fraction, timestamp, sample);
+        return true;
+    }
+
+    private void copy(int before, int after, double fraction, double timestamp, Sample sample) {
+        sample.timestamp = timestamp;
+        sample.x = x[before] + (x[after] - x[before]) * fraction;
+        sample.y = y[before] + (y[after] - y[before]) * fraction;
+        sample.heading = heading[before] + MathUtils.AngleDifference(heading[after], heading[before]) * fraction;
+        sample.vx = vx[before] + (vx[after] - vx[before]) * fraction;
+        sample.vy = vy[before] + (vy[after] - vy[before]) * fraction;
+        sample.omega = omega[before] + (omega[after] - omega[before]) * fraction;
+    }
+
+    /**
+     * Mutable holder for a looked up state, reuse one per caller to avoid allocation.
+     */
+    public static class Sample {
+        public double timestamp;
+        public double x;
+        public double y;
+        public double heading;
+        public double vx;
+        public double vy;
+        public double omega;
+    }
+}
@@ -0,0 +1,31 @@
+package frc.robot.utils;
+
+/**
+ * Smooths a stream of range readings (e.g. Limelight distance, one per camera
+ * frame) and reports how much the result can be trusted. Updates are constant
+ * time and do not allocate.
+ */
+public interface RangeFilter {
+
+    /**
+     * @param range     Measured range in meters
+     * @param timestamp FPGA time of the measurement in seconds
+     */
+    public void update(double range, double timestamp);
+
+    public void reset();
+
+    /**
+     * @return Filtered range in meters, 0 before the first update
+     */
+    public double getRange();
+
+    /**
+     * @param timestamp FPGA time in seconds to report the variance for, filters
+     *                  that model the range changing over time include the
+     *                  change since their last reading
+     * @return Variance of the filtered range in square meters, infinity until
+     *         there is enough data to tell
+     */
+    public double getVariance(double timestamp);
+}
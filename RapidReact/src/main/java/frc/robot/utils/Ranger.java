@@ -4,4 +4,15 @@ public interface Ranger {
 
     public FiringSolution getFiringSolution(double range);
     public FiringSolution getFiringSolution(String name);
+
+    /**
+     * Calculate the firing solution for a range into a caller supplied
+     * solution. Implementations used every loop should override this so it
+     * does not allocate.
+     */
+    public default void getFiringSolution(double range, FiringSolution solution) {
+        FiringSolution result = getFiringSolution(range);
+        solution.speed = result.speed;
+        solution.angle = result.angle;
+    }
 }
@@ -0,0 +1,124 @@
+package frc.robot.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.wpi.first.wpilibj.Filesystem;
+
+/**
+ * Append only record of shots that went in, collected with ShotCaptureCommand.
+ * Each shot is a line in a CSV file on the RIO, written and flushed as soon as
+ * it is recorded so nothing is lost if the robot is power cycled.
+ *
+ * The dataset can be turned into a firing table by averaging the shots in
+ * bins of distance.
+ */
+public class ShotDataset {
+
+    public static final String DEFAULT_FILE = "shot_map.csv";
+
+    private static final String HEADER = "timestamp,distance,ty,tx,rpm,hood_angle";
+
+    private final File file;
+
+    public ShotDataset() {
+        this(new File(Filesystem.getOperatingDirectory(), DEFAULT_FILE));
+    }
+
+    public ShotDataset(File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @param distance  Limelight range to the target in meters
+     * @param ty        Limelight vertical offset in degrees
+     * @param tx        Limelight horizontal offset in degrees
+     * @param rpm       Measured flywheel speed
+     * @param hoodAngle Measured hood angle in degrees
+     */
+    public void append(double distance, double ty, double tx, double rpm, double hoodAngle) throws IOException {
+        boolean newFile = !file.exists() || file.length() == 0;
+
+        try (PrintWriter writer = new PrintWriter(new FileWriter(file, true))) {
+            if (newFile) {
+                writer.println(HEADER);
+            }
+            writer.printf("%d,%.4f,%.3f,%.3f,%.0f,%.2f%n",
+                    System.currentTimeMillis(), distance, ty, tx, rpm, hoodAngle);
+        }
+    }
+
+    /**
+     * @return One row per recorded shot: distance, angle, speed
+     */
+    public List<double[]> read() throws IOException {
+        List<double[]> shots = new ArrayList<>();
+        if (!file.exists()) {
+            return shots;
+        }
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(",");
+                if (fields.length != 6 || line.startsWith("timestamp")) {
+                    continue;
+                }
+                try {
+                    shots.add(new double[] {
+                            Double.parseDouble(fields[1]),
+                            Double.parseDouble(fields[5]),
+                            Double.parseDouble(fields[4]) });
+                } catch (NumberFormatException e) {
+                    // skip a line torn by a power cut
+                }
+            }
+        }
+        return shots;
+    }
+
+    /**
+     * Build firing table rows by averaging the shots within each distance bin.
+     *
+     * @param shots    Rows of distance, angle, speed
+     * @param binWidth Width of a distance bin in meters
+     * @return Rows of distance, angle, speed with strictly increasing distance
+     */
+    public static double[][] buildFiringTable(List<double[]> shots, double binWidth) {
+        double[][] sorted = shots.toArray(new double[shots.size()][]);
+        Arrays.sort(sorted, (a, b) -> Double.compare(a[0], b[0]));
+
+        List<double[]> table = new ArrayList<>();
+        int start = 0;
+        while (start < sorted.length) {
+            double binEnd = sorted[start][0] + binWidth;
+            double sumDistance = 0;
+            double sumAngle = 0;
+            double sumSpeed = 0;
+            int end = start;
+            while (end < sorted.length && sorted[end][0] < binEnd) {
+                sumDistance += sorted[end][0];
+                sumAngle += sorted[end][1];
+                sumSpeed += sorted[end][2];
+                end++;
+            }
+
+            int count = end - start;
+            table.add(new double[] { sumDistance / count, sumAngle / count, Math.round(sumSpeed / count) });
+            start = end;
+        }
+
+        return table.toArray(new double[table.size()][]);
+    }
+}
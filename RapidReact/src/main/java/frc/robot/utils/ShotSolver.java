@@ -0,0 +1,176 @@
+package frc.robot.utils;
+
+import java.io.File;
+import java.io.IOException;
+
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.Filesystem;
+import frc.robot.Constants;
+
+/**
+ * Compensates a shot for the robot's motion. A ball leaves the shooter with
+ * the robot's velocity added to it, so while moving we aim and range at a
+ * virtual hub, offset from the real one by the distance the robot travels
+ * during the ball's time of flight. As the time of flight depends on the range
+ * to the virtual hub this is solved by a few fixed point iterations.
+ *
+ * Everything is in the robot frame (x forward, y left). The results follow the
+ * Limelight conventions so they can be used in place of the raw readings:
+ * range is to the vision target on the hub's edge, aim offset is in degrees
+ * from the camera and shooter axis (Constants.CAMERA_YAW) and positive to the
+ * right.
+ *
+ * The time of flight comes from a measured table in the deploy directory,
+ * distance (m), time of flight (s) per line. Without one the time of flight is
+ * taken as zero, which aims at the real hub and leaves motion uncompensated
+ * rather than compensating by guesses. That is reported as a Driver Station
+ * warning, and hasTimeOfFlight() lets callers fall back to stationary shots.
+ *
+ * Does not allocate, keep one per command.
+ */
+public class ShotSolver {
+
+    private static final int ITERATIONS = 3;
+
+    public static final String TIME_OF_FLIGHT_FILE = "time_of_flight.csv";
+
+    private static final double[] NO_TOF_DISTANCES = { 0 };
+    private static final double[] NO_TOF_TIMES = { 0 };
+
+    // Time of flight by range to the vision target, linearly interpolated.
+    // Loaded once, shared by all solvers.
+    private static final double[][] MEASURED_TIME_OF_FLIGHT = loadTimeOfFlight(
+            new File(Filesystem.getDeployDirectory(), TIME_OF_FLIGHT_FILE));
+
+    private final double[] tofDistances;
+    private final double[] tofTimes;
+    private final double hubRadius;
+    private final double cameraYaw;
+
+    private double range;
+    private double aimOffset;
+    private double timeOfFlight;
+
+    public ShotSolver() {
+        this(MEASURED_TIME_OF_FLIGHT[0], MEASURED_TIME_OF_FLIGHT[1], Constants.HUB_RADIUS, Constants.CAMERA_YAW);
+    }
+
+    /**
+     * @param tofDistances Ranges to the vision target in meters, increasing
+     * @param tofTimes     Time of flight in seconds at each range
+     * @param hubRadius    Distance from the vision target to the hub center in meters
+     * @param cameraYaw    Direction the camera and shooter face relative to the
+     *                     robot's +x axis in radians, counter-clockwise positive
+     */
+    public ShotSolver(double[] tofDistances, double[] tofTimes, double hubRadius, double cameraYaw) {
+        this.tofDistances = tofDistances.clone();
+        this.tofTimes = tofTimes.clone();
+        this.hubRadius = hubRadius;
+        this.cameraYaw = cameraYaw;
+    }
+
+    /**
+     * @return Distances and times from the file, or a table of zero time of
+     *         flight if it is missing or unreadable
+     */
+    private static double[][] loadTimeOfFlight(File file) {
+        if (file.exists()) {
+            try {
+                double[][] rows = FiringTableRanger.readRows(file, "distance", "time of flight");
+                if (rows.length > 0) {
+                    double[][] table = new double[2][rows.length];
+                    for (int i = 0; i < rows.length; i++) {
+                        table[0][i] = rows[i][0];
+                        table[1][i] = rows[i][1];
+                    }
+                    return table;
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                System.out.println("Could not load " + file + ": " + e.getMessage());
+            }
+        }
+
+        DriverStation.reportWarning("No measured time of flight in " + file
+                + ", shots are NOT compensated for robot motion", false);
+        return new double[][] { NO_TOF_DISTANCES, NO_TOF_TIMES };
+    }
+
+    /**
+     * @return Whether a measured time of flight was loaded, without one the
+     *         solver does not compensate for motion
+     */
+    public static boolean hasTimeOfFlight() {
+        return MEASURED_TIME_OF_FLIGHT[0] != NO_TOF_DISTANCES;
+    }
+
+    /**
+     * Solve from a Limelight reading.
+     *
+     * @param distance Limelight range to the vision target in meters
+     * @param xOffset  Limelight tx in degrees, positive to the right
+     * @param vx       Robot relative velocity in meters/second
+     * @param vy       Robot relative velocity in meters/second
+     */
+    public void solveFromVision(double distance, double xOffset, double vx, double vy) {
+        double bearing = cameraYaw - Math.toRadians(xOffset);
+        double hubDistance = distance + hubRadius;
+        solve(hubDistance * Math.cos(bearing), hubDistance * Math.sin(bearing), vx, vy);
+    }
+
+    /**
+     * @param hubX Position of the hub center relative to the robot in meters
+     * @param hubY Position of the hub center relative to the robot in meters
+     * @param vx   Robot relative velocity in meters/second
+     * @param vy   Robot relative velocity in meters/second
+     */
+    public void solve(double hubX, double hubY, double vx, double vy) {
+        double targetX = hubX;
+        double targetY = hubY;
+        double time = getTimeOfFlight(Math.hypot(hubX, hubY) - hubRadius);
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            targetX = hubX - vx * time;
+            targetY = hubY - vy * time;
+            time = getTimeOfFlight(Math.hypot(targetX, targetY) - hubRadius);
+        }
+
+        range = Math.hypot(targetX, targetY) - hubRadius;
+        aimOffset = -Math.toDegrees(MathUtils.AngleDifference(Math.atan2(targetY, targetX), cameraYaw));
+        timeOfFlight = time;
+    }
+
+    /**
+     * @return Range to shoot at in meters, measured like LimelightSubsystem.getDistance
+     */
+    public double getRange() {
+        return range;
+    }
+
+    /**
+     * @return Angle to turn to the virtual hub in degrees, positive to the right like tx
+     */
+    public double getAimOffset() {
+        return aimOffset;
+    }
+
+    public double getTimeOfFlight() {
+        return timeOfFlight;
+    }
+
+    private double getTimeOfFlight(double distance) {
+        if (distance <= tofDistances[0]) {
+            return tofTimes[0];
+        }
+        int last = tofDistances.length - 1;
+        if (distance >= tofDistances[last]) {
+            return tofTimes[last];
+        }
+
+        int i = 1;
+        while (tofDistances[i] < distance) {
+            i++;
+        }
+        double fraction = (distance - tofDistances[i - 1]) / (tofDistances[i] - tofDistances[i - 1]);
+        return tofTimes[i - 1] + (tofTimes[i] - tofTimes[i - 1]) * fraction;
+    }
+}
@@ -4,39 +4,40 @@ import java.util.HashMap;
 
 public class SimpleRanger implements Ranger {
 
-    private final double DISTANCE_0 = 0;
-    private final double DISTANCE_1 = 1.398;
-    private final double DISTANCE_2 = 2.066; // no
-    private final double DISTANCE_3 = 2.750;
-    private final double DISTANCE_4 = 3.75;
-    private final double DISTANCE_5 = 4.099; //
-    private final double DISTANCE_6 = 4.741; //
-    private final double DISTANCE_7 = 5;
-
-    private final double ANGLE_0 = 85;
-    private final double ANGLE_1 = 80;
-    private final double ANGLE_2 = 75; //
-    private final double ANGLE_3 = 71;
-    private final double ANGLE_4 = 67; 
-    private final double ANGLE_5 = 67; //
-    private final double ANGLE_6 = 67; //
-    private final double ANGLE_7 = 67;
-
-
-    private final double SPEED_0 = 1200; 
-    private final double SPEED_1 = 1300; 
-    private final double SPEED_2 = 1350; //
-    private final double SPEED_3 = 1700;
-    private final double SPEED_4 = 1875;
-    private final double SPEED_5 = 1950; //
-    private final double SPEED_6 = 2200; //
-    private final double SPEED_7 = 2400;
-
-    private final int DISTANCE_COLUMN_INDEX = 0;
-    private final int ANGLE_COLUMN_INDEX = 1;
-    private final int SPEED_COLUMN_INDEX = 2;
-
-    private double[][] KNOWN_DATA = new double[][] {
+    private static final double DISTANCE_0 = 0;
+    private static final double DISTANCE_1 = 1.398;
+    private static final double DISTANCE_2 = 2.066; // no
+    private static final double DISTANCE_3 = 2.750;
+    private static final double DISTANCE_4 = 3.75;
+    private static final double DISTANCE_5 = 4.099; //
+    private static final double DISTANCE_6 = 4.741; //
+    private static final double DISTANCE_7 = 5;
+
+    private static final double ANGLE_0 = 85;
+    private static final double ANGLE_1 = 80;
+    private static final double ANGLE_2 = 75; //
+    private static final double ANGLE_3 = 71;
+    private static final double ANGLE_4 = 67; 
+    private static final double ANGLE_5 = 67; //
+    private static final double ANGLE_6 = 67; //
+    private static final double ANGLE_7 = 67;
+
+
+    private static final double SPEED_0 = 1200; 
+    private static final double SPEED_1 = 1300; 
+    private static final double SPEED_2 = 1350; //
+    private static final double SPEED_3 = 1700;
+    private static final double SPEED_4 = 1875;
+    private static final double SPEED_5 = 1950; //
+    private static final double SPEED_6 = 2200; //
+    private static final double SPEED_7 = 2400;
+
+    static final int DISTANCE_COLUMN_INDEX = 0;
+    static final int ANGLE_COLUMN_INDEX = 1;
+    static final int SPEED_COLUMN_INDEX = 2;
+
+    // Measured shots, also used by SplineRanger.
+    static final double[][] KNOWN_DATA = new double[][] {
         {DISTANCE_0, ANGLE_0, SPEED_0},
         {DISTANCE_1, ANGLE_1, SPEED_1},
         {DISTANCE_2, ANGLE_2, SPEED_2},
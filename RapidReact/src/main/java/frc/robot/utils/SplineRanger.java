@@ -0,0 +1,170 @@
+package frc.robot.utils;
+
+import java.util.HashMap;
+
+/**
+ * Ranger that fits a monotone cubic (PCHIP) spline through the measured shots,
+ * one for flywheel speed and one for hood angle. Unlike a plain cubic spline it
+ * never overshoots between points, so flat stretches of the table stay flat and
+ * speed never dips between two increasing measurements.
+ *
+ * The coefficients are calculated once at construction, a lookup is a binary
+ * search for the segment plus two polynomial evaluations. Ranges outside the
+ * table are clamped to the first or last measurement.
+ */
+public class SplineRanger implements Ranger {
+
+    private final double[] distances;
+    private final Spline speedSpline;
+    private final Spline angleSpline;
+
+    // We keep a list of a few fixed firing solutions that will work even if the limelight is not.
+    private HashMap<String, FiringSolution> fixedSolutions = new HashMap<String, FiringSolution>();
+
+    /**
+     * Ranger for the shots measured in SimpleRanger.
+     */
+    public SplineRanger() {
+        this(column(SimpleRanger.KNOWN_DATA, SimpleRanger.DISTANCE_COLUMN_INDEX),
+                column(SimpleRanger.KNOWN_DATA, SimpleRanger.SPEED_COLUMN_INDEX),
+                column(SimpleRanger.KNOWN_DATA, SimpleRanger.ANGLE_COLUMN_INDEX));
+    }
+
+    /**
+     * @param distances Distance of each measured shot in meters, strictly increasing
+     * @param speeds    Flywheel speed of each measured shot in RPM
+     * @param angles    Hood angle of each measured shot in degrees
+     */
+    public SplineRanger(double[] distances, double[] speeds, double[] angles) {
+        if (distances.length < 2 || speeds.length != distances.length || angles.length != distances.length) {
+            throw new IllegalArgumentException("Need at least two shots with a distance, speed and angle each");
+        }
+        for (int i = 1; i < distances.length; i++) {
+            if (distances[i] <= distances[i - 1]) {
+                throw new IllegalArgumentException("Distances must be strictly increasing");
+            }
+        }
+
+        this.distances = distances.clone();
+        speedSpline = new Spline(this.distances, speeds);
+        angleSpline = new Spline(this.distances, angles);
+
+        fixedSolutions.put("hub", new FiringSolution((int) Math.round(speeds[0]), angles[0]));
+    }
+
+    public FiringSolution getFiringSolution(double range) {
+        FiringSolution solution = new FiringSolution();
+        getFiringSolution(range, solution);
+        return solution;
+    }
+
+    /**
+     * @return The fixed solution with this name, null if there is none
+     */
+    public FiringSolution getFiringSolution(String name) {
+        return fixedSolutions.get(name);
+    }
+
+    @Override
+    public void getFiringSolution(double range, FiringSolution solution) {
+        double x = MathUtils.ClipToRange(range, distances[0], distances[distances.length - 1]);
+        int segment = findSegment(x);
+        double t = x - distances[segment];
+
+        solution.speed = Math.round(speedSpline.evaluate(segment, t));
+        solution.angle = angleSpline.evaluate(segment, t);
+    }
+
+    // Index of the last distance at or below x, never the last point.
+    private int findSegment(double x) {
+        int low = 0;
+        int high = distances.length - 1;
+        while (high - low > 1) {
+            int mid = (low + high) >>> 1;
+            if (distances[mid] <= x) {
+                low = mid;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static double[] column(double[][] table, int column) {
+        double[] values = new double[table.length];
+        for (int i = 0; i < table.length; i++) {
+            values[i] = table[i][column];
+        }
+        return values;
+    }
+
+    /**
+     * Piecewise cubic y = a + b*t + c*t^2 + d*t^3, t being the distance from the
+     * start of the segment. Slopes at the points follow Fritsch-Carlson.
+     */
+    private static class Spline {
+        private final double[] a;
+        private final double[] b;
+        private final double[] c;
+        private final double[] d;
+
+        Spline(double[] x, double[] y) {
+            int n = x.length;
+            int segments = n - 1;
+
+            double[] h = new double[segments];
+            double[] delta = new double[segments];
+            for (int i = 0; i < segments; i++) {
+                h[i] = x[i + 1] - x[i];
+                delta[i] = (y[i + 1] - y[i]) / h[i];
+            }
+
+            double[] slopes = new double[n];
+            if (n == 2) {
+                slopes[0] = delta[0];
+                slopes[1] = delta[0];
+            } else {
+                // Interior points: weighted harmonic mean of the neighbouring
+                // secants, or flat at a local extremum.
+                for (int i = 1; i < n - 1; i++) {
+                    if (delta[i - 1] * delta[i] <= 0) {
+                        slopes[i] = 0;
+                    } else {
+                        double w1 = 2 * h[i] + h[i - 1];
+                        double w2 = h[i] + 2 * h[i - 1];
+                        slopes[i] = (w1 + w2) / (w1 / delta[i - 1] + w2 / delta[i]);
+                    }
+                }
+                slopes[0] = endSlope(h[0], h[1], delta[0], delta[1]);
+                slopes[n - 1] = endSlope(h[segments - 1], h[segments - 2], delta[segments - 1], delta[segments - 2]);
+            }
+
+            a = new double[segments];
+            b = new double[segments];
+            c = new double[segments];
+            d = new double[segments];
+            for (int i = 0; i < segments; i++) {
+                a[i] = y[i];
+                b[i] = slopes[i];
+                c[i] = (3 * delta[i] - 2 * slopes[i] - slopes[i + 1]) / h[i];
+                d[i] = (slopes[i] + slopes[i + 1] - 2 * delta[i]) / (h[i] * h[i]);
+            }
+        }
+
+        // Three point estimate at an end, limited so it keeps the curve monotone.
+        private static double endSlope(double h0, double h1, double delta0, double delta1) {
+            double slope = ((2 * h0 + h1) * delta0 - h0 * delta1) / (h0 + h1);
+            if (Math.signum(slope) != Math.signum(delta0)) {
+                return 0;
+            }
+            if (Math.signum(delta0) != Math.signum(delta1) && Math.abs(slope) > Math.abs(3 * delta0)) {
+                return 3 * delta0;
+            }
+            return slope;
+        }
+
+        double evaluate(int segment, double t) {
+            return a[segment] + t * (b[segment] + t * (c[segment] + t * d[segment]));
+        }
+    }
+}
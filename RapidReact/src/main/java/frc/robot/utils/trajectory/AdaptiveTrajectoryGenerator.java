@@ -0,0 +1,179 @@
+package frc.robot.utils.trajectory;
+
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+
+import org.frcteam2910.common.control.Path;
+import org.frcteam2910.common.control.TrajectoryConstraint;
+
+/**
+ * Generates a SampledTrajectory with a sample spacing that follows the path
+ * instead of the fixed sample distance used by the 2910 Trajectory. Straight
+ * sections with a steady velocity limit are sampled at maxStep, tight curves and
+ * places where a constraint starts or stops limiting velocity are refined down
+ * to minStep.
+ *
+ * The velocity profile is built the same way as the 2910 Trajectory: a forward
+ * pass limited by acceleration, then a backward pass limited by deceleration.
+ */
+public class AdaptiveTrajectoryGenerator {
+
+    private final double minStep;
+    private final double maxStep;
+    private final double maxHeadingChange;
+    private final double velocityTolerance;
+
+    /**
+     * @param minStep           Smallest distance between samples in meters
+     * @param maxStep           Largest distance between samples in meters
+     * @param maxHeadingChange  Largest change in path heading between samples in radians
+     * @param velocityTolerance Largest change in the constraint velocity limit
+     *                          between samples in meters/second
+     */
+    public AdaptiveTrajectoryGenerator(double minStep, double maxStep, double maxHeadingChange,
+            double velocityTolerance) {
+        this.minStep = minStep;
+        this.maxStep = maxStep;
+        this.maxHeadingChange = maxHeadingChange;
+        this.velocityTolerance = velocityTolerance;
+    }
+
+    public SampledTrajectory generate(Path path, TrajectoryConstraint[] constraints) {
+        double length = path.getLength();
+
+        // Choose the sample points along the path.
+        double[] distances = new double[64];
+        double[] velocityLimits = new double[64];
+        Path.State[] states = new Path.State[64];
+        int count = 0;
+
+        double distance = 0;
+        Path.State state = path.calculate(distance);
+        double limit = getMaxVelocity(state, constraints);
+
+        while (true) {
+            if (count == distances.length) {
+                distances = Arrays.copyOf(distances, count * 2);
+                velocityLimits = Arrays.copyOf(velocityLimits, count * 2);
+                states = Arrays.copyOf(states, count * 2);
+            }
+            distances[count] = distance;
+            velocityLimits[count] = limit;
+            states[count] = state;
+            count++;
+
+            if (distance >= length) {
+                break;
+            }
+
+            // Step size from curvature, then halve it while the velocity limit
+            // changes too much across the step.
+            double curvature = Math.abs(state.getCurvature());
+            double step = curvature > 0 ? maxHeadingChange / curvature : maxStep;
+            step = Math.max(minStep, Math.min(maxStep, step));
+
+            Path.State next;
+            double nextLimit;
+            while (true) {
+                next = path.calculate(Math.min(distance + step, length));
+                nextLimit = getMaxVelocity(next, constraints);
+                if (step <= minStep || !limitChanged(limit, nextLimit)) {
+                    break;
+                }
+                step = Math.max(minStep, step / 2);
+            }
+
+            distance = Math.min(distance + step, length);
+            state = next;
+            limit = nextLimit;
+        }
+
+        // Forward pass, start from rest and accelerate as hard as allowed.
+        double[] velocities = new double[count];
+        velocities[0] = 0;
+        for (int i = 1; i < count; i++) {
+            double step = distances[i] - distances[i - 1];
+            double acceleration = getMaxAcceleration(states[i - 1], velocities[i - 1], constraints);
+            double reachable = Math.sqrt(velocities[i - 1] * velocities[i - 1] + 2 * acceleration * step);
+            velocities[i] = Math.min(velocityLimits[i], reachable);
+        }
+
+        // Backward pass, end at rest and decelerate as hard as allowed.
+        velocities[count - 1] = 0;
+        for (int i = count - 2; i >= 0; i--) {
+            double step = distances[i + 1] - distances[i];
+            double deceleration = getMaxDeceleration(states[i + 1], velocities[i + 1], constraints);
+            double reachable = Math.sqrt(velocities[i + 1] * velocities[i + 1] + 2 * deceleration * step);
+            velocities[i] = Math.min(velocities[i], reachable);
+        }
+
+        // Integrate time and write out the table.
+        double[] rows = new double[count * SampledTrajectory.ROW_SIZE];
+        double time = 0;
+        for (int i = 0; i < count; i++) {
+            double acceleration = 0;
+            if (i < count - 1) {
+                double step = distances[i + 1] - distances[i];
+                if (step > 0) {
+                    acceleration = (velocities[i + 1] * velocities[i + 1] - velocities[i] * velocities[i])
+                            / (2 * step);
+                }
+            }
+
+            int row = i * SampledTrajectory.ROW_SIZE;
+            rows[row + SampledTrajectory.TIME] = time;
+            rows[row + SampledTrajectory.X] = states[i].getPosition().x;
+            rows[row + SampledTrajectory.Y] = states[i].getPosition().y;
+            rows[row + SampledTrajectory.HEADING] = states[i].getHeading().toRadians();
+            rows[row + SampledTrajectory.ROTATION] = states[i].getRotation().toRadians();
+            rows[row + SampledTrajectory.VELOCITY] = velocities[i];
+            rows[row + SampledTrajectory.ACCELERATION] = acceleration;
+
+            if (i < count - 1) {
+                double averageVelocity = (velocities[i] + velocities[i + 1]) / 2;
+                double step = distances[i + 1] - distances[i];
+                if (step > 0) {
+                    time += averageVelocity > 1e-6
+                            ? step / averageVelocity
+                            : Math.sqrt(2 * step / Math.max(acceleration, 1e-6));
+                }
+            }
+        }
+
+        return new SampledTrajectory(DoubleBuffer.wrap(rows));
+    }
+
+    private boolean limitChanged(double limit, double nextLimit) {
+        if (Double.isInfinite(limit) && Double.isInfinite(nextLimit)) {
+            return false;
+        }
+        if (Double.isInfinite(limit) || Double.isInfinite(nextLimit)) {
+            return true;
+        }
+        return Math.abs(nextLimit - limit) > velocityTolerance;
+    }
+
+    private static double getMaxVelocity(Path.State state, TrajectoryConstraint[] constraints) {
+        double result = Double.POSITIVE_INFINITY;
+        for (TrajectoryConstraint constraint : constraints) {
+            result = Math.min(result, constraint.getMaxVelocity(state));
+        }
+        return result;
+    }
+
+    private static double getMaxAcceleration(Path.State state, double velocity, TrajectoryConstraint[] constraints) {
+        double result = Double.POSITIVE_INFINITY;
+        for (TrajectoryConstraint constraint : constraints) {
+            result = Math.min(result, constraint.getMaxAcceleration(state, velocity));
+        }
+        return result;
+    }
+
+    private static double getMaxDeceleration(Path.State state, double velocity, TrajectoryConstraint[] constraints) {
+        double result = Double.POSITIVE_INFINITY;
+        for (TrajectoryConstraint constraint : constraints) {
+            result = Math.min(result, constraint.getMaxDeceleration(state, velocity));
+        }
+        return result;
+    }
+}
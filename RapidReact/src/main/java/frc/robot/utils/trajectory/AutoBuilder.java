@@ -0,0 +1,339 @@
+package frc.robot.utils.trajectory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj2.command.Command;
+import edu.wpi.first.wpilibj2.command.FunctionalCommand;
+import edu.wpi.first.wpilibj2.command.InstantCommand;
+import edu.wpi.first.wpilibj2.command.ParallelDeadlineGroup;
+import edu.wpi.first.wpilibj2.command.SequentialCommandGroup;
+import edu.wpi.first.wpilibj2.command.StartEndCommand;
+import frc.robot.Constants;
+import frc.robot.commands.AimCommand;
+import frc.robot.commands.FollowerCommand;
+import frc.robot.commands.IntakeCommand;
+import frc.robot.commands.PrepareShotCommand;
+import frc.robot.commands.ShootCommand;
+import frc.robot.commands.ShootWhileFollowingCommand;
+import frc.robot.subsystems.CargoTrackerSubsystem;
+import frc.robot.subsystems.DrivetrainSubsystem;
+import frc.robot.subsystems.FeederSubsystem;
+import frc.robot.subsystems.IntakeSubsystem;
+import frc.robot.subsystems.LimelightSubsystem;
+import frc.robot.subsystems.ShooterSubsystem;
+import frc.robot.subsystems.FeederSubsystem.FeedMode;
+import frc.robot.utils.ShotSolver;
+
+/**
+ * Builds an autonomous routine out of trajectory and shooting steps, and
+ * overlaps the preparation for each shot with the drive that leads to it.
+ *
+ * On the drive right before a shot the flywheel speed and hood angle are set
+ * for the range the shot starts at (the end of this trajectory for a
+ * stationary shot, the start of the next one for shooting on the move) and the
+ * Limelight LED
+ * is turned on, and once the cargo for the shot are in the feeder (or straight
+ * away when not intaking) they are staged with PRESHOOT. When the trajectory
+ * ends the shot can start on the next loop instead of spinning up from idle.
+ *
+ * Long enough trajectories can instead shoot on the move, see driveAndShoot.
+ * That needs the measured time of flight (ShotSolver.hasTimeOfFlight()),
+ * without it those steps fall back to stationary shots.
+ *
+ * <pre>
+ * new AutoBuilder(...)
+ *         .startAt(pose)
+ *         .driveAndIntake("start to ball2")
+ *         .shoot(2, 1.6)
+ *         .build();
+ * </pre>
+ */
+public class AutoBuilder {
+
+    private enum StepType {
+        DRIVE,
+        DRIVE_AND_INTAKE,
+        DRIVE_AND_SHOOT,
+        DRIVE_SHOOT_AND_INTAKE,
+        SHOOT,
+        COMMAND
+    }
+
+    private static class Step {
+        StepType type;
+        String trajectory;
+        int cargo;
+        double timeout;
+        Command command;
+    }
+
+    // Time kept free at the end of a trajectory to feed the cargo picked up
+    // after shooting, the intake itself is out for the whole trajectory.
+    private static final double INTAKE_TIME = 1.0;
+
+    // The feeder holds this many cargo.
+    private static final int MAX_CARGO = 2;
+
+    // Safety cap on a stationary shot standing in for shooting on the move.
+    private static final double FALLBACK_SHOOT_TIMEOUT = 2.0;
+
+    private final DrivetrainSubsystem drivetrain;
+    private final ShooterSubsystem shooter;
+    private final FeederSubsystem feeder;
+    private final IntakeSubsystem intake;
+    private final LimelightSubsystem limelight;
+    private final CargoTrackerSubsystem cargoTracker;
+    private final TrajectoryFactory trajectoryFactory;
+
+    private final List<Step> steps = new ArrayList<Step>();
+    private final ShotSolver shotSolver = new ShotSolver();
+    private final SampledTrajectory.State state = new SampledTrajectory.State();
+
+    public AutoBuilder(DrivetrainSubsystem drivetrain, ShooterSubsystem shooter, FeederSubsystem feeder,
+            IntakeSubsystem intake, LimelightSubsystem limelight, CargoTrackerSubsystem cargoTracker,
+            TrajectoryFactory trajectoryFactory) {
+        this.drivetrain = drivetrain;
+        this.shooter = shooter;
+        this.feeder = feeder;
+        this.intake = intake;
+        this.limelight = limelight;
+        this.cargoTracker = cargoTracker;
+        this.trajectoryFactory = trajectoryFactory;
+    }
+
+    public AutoBuilder startAt(Pose2d pose) {
+        return then(new InstantCommand(() -> drivetrain.setAutoInitPose(pose)));
+    }
+
+    /**
+     * Follow a trajectory.
+     */
+    public AutoBuilder drive(String trajectory) {
+        Step step = new Step();
+        step.type = StepType.DRIVE;
+        step.trajectory = trajectory;
+        steps.add(step);
+        return this;
+    }
+
+    /**
+     * Follow a trajectory with the intake out.
+     */
+    public AutoBuilder driveAndIntake(String trajectory) {
+        drive(trajectory);
+        steps.get(steps.size() - 1).type = StepType.DRIVE_AND_INTAKE;
+        return this;
+    }
+
+    /**
+     * Follow a trajectory and shoot the cargo on board while driving it. Any
+     * that could not be shot on the way are left staged for a following shoot
+     * step.
+     *
+     * @param cargo Number of cargo to shoot
+     */
+    public AutoBuilder driveAndShoot(String trajectory, int cargo) {
+        checkCargo(cargo);
+        drive(trajectory);
+        Step step = steps.get(steps.size() - 1);
+        step.type = StepType.DRIVE_AND_SHOOT;
+        step.cargo = cargo;
+        return this;
+    }
+
+    /**
+     * Follow a trajectory with the intake out, shoot the cargo on board while
+     * driving it and then feed the cargo picked up at its end. Shooting gives
+     * up early enough to leave time for feeding.
+     *
+     * @param cargo Number of cargo to shoot
+     */
+    public AutoBuilder driveShootAndIntake(String trajectory, int cargo) {
+        driveAndShoot(trajectory, cargo);
+        steps.get(steps.size() - 1).type = StepType.DRIVE_SHOOT_AND_INTAKE;
+        return this;
+    }
+
+    /**
+     * Aim and shoot until the expected cargo have been fired.
+     *
+     * @param cargo   Number of cargo to shoot
+     * @param timeout Safety cap on the step in seconds
+     */
+    public AutoBuilder shoot(int cargo, double timeout) {
+        checkCargo(cargo);
+        Step step = new Step();
+        step.type = StepType.SHOOT;
+        step.cargo = cargo;
+        step.timeout = timeout;
+        steps.add(step);
+        return this;
+    }
+
+    /**
+     * Run any other command as a step.
+     */
+    public AutoBuilder then(Command command) {
+        Step step = new Step();
+        step.type = StepType.COMMAND;
+        step.command = command;
+        steps.add(step);
+        return this;
+    }
+
+    private static void checkCargo(int cargo) {
+        if (cargo < 1 || cargo > MAX_CARGO) {
+            throw new IllegalArgumentException("Can only shoot 1 to " + MAX_CARGO + " cargo, not " + cargo);
+        }
+    }
+
+    public Command build() {
+        SequentialCommandGroup routine = new SequentialCommandGroup();
+        List<Step> plan = ShotSolver.hasTimeOfFlight() ? steps : withStationaryShots(steps);
+
+        for (int i = 0; i < plan.size(); i++) {
+            Step step = plan.get(i);
+            Step next = i + 1 < plan.size() ? plan.get(i + 1) : null;
+
+            switch (step.type) {
+                case DRIVE:
+                case DRIVE_AND_INTAKE:
+                    if (next != null && next.type == StepType.SHOOT) {
+                        Supplier<SampledTrajectory> trajectory = trajectoryFactory.getLater(step.trajectory);
+                        routine.addCommands(createDriveToShot(step, next.cargo,
+                                () -> getRange(trajectory.get(), trajectory.get().getDuration())));
+                    } else if (next != null && (next.type == StepType.DRIVE_AND_SHOOT
+                            || next.type == StepType.DRIVE_SHOOT_AND_INTAKE)) {
+                        Supplier<SampledTrajectory> nextTrajectory = trajectoryFactory.getLater(next.trajectory);
+                        routine.addCommands(createDriveToShot(step, next.cargo,
+                                () -> getRange(nextTrajectory.get(), 0)));
+                    } else {
+                        routine.addCommands(createDrive(step));
+                    }
+                    break;
+                case DRIVE_AND_SHOOT:
+                case DRIVE_SHOOT_AND_INTAKE:
+                    routine.addCommands(createShootWhileDriving(step));
+                    break;
+                case SHOOT:
+                    routine.addCommands(new ShootCommand(shooter, feeder, limelight, () -> false)
+                            .untilCargoFired(cargoTracker, step.cargo).withTimeout(step.timeout)
+                            .raceWith(new AimCommand(limelight, drivetrain)));
+                    break;
+                default:
+                    routine.addCommands(step.command);
+                    break;
+            }
+        }
+
+        return routine;
+    }
+
+    /**
+     * Replace shooting on the move, which can not lead the hub without a
+     * measured time of flight, with a stationary shot: after the trajectory
+     * for driveAndShoot, and before it for driveShootAndIntake so the cargo
+     * at its end can still be picked up.
+     */
+    private static List<Step> withStationaryShots(List<Step> steps) {
+        List<Step> stationary = new ArrayList<Step>();
+        boolean replaced = false;
+
+        for (Step step : steps) {
+            if (step.type != StepType.DRIVE_AND_SHOOT && step.type != StepType.DRIVE_SHOOT_AND_INTAKE) {
+                stationary.add(step);
+                continue;
+            }
+            replaced = true;
+
+            Step shoot = new Step();
+            shoot.type = StepType.SHOOT;
+            shoot.cargo = step.cargo;
+            shoot.timeout = FALLBACK_SHOOT_TIMEOUT;
+
+            Step drive = new Step();
+            drive.trajectory = step.trajectory;
+            if (step.type == StepType.DRIVE_AND_SHOOT) {
+                drive.type = StepType.DRIVE;
+                stationary.add(drive);
+                stationary.add(shoot);
+            } else {
+                drive.type = StepType.DRIVE_AND_INTAKE;
+                stationary.add(shoot);
+                stationary.add(drive);
+            }
+        }
+
+        if (replaced) {
+            DriverStation.reportWarning("No measured time of flight, autonomous shoots standing still", false);
+        }
+        return stationary;
+    }
+
+    private Command createDrive(Step step) {
+        Command follower = new FollowerCommand(drivetrain, trajectoryFactory.getLater(step.trajectory));
+        if (step.type == StepType.DRIVE_AND_INTAKE) {
+            return follower.raceWith(new IntakeCommand(intake, feeder, () -> false));
+        }
+        return follower;
+    }
+
+    /**
+     * Drive that ends at a shot: spin up for the shot's range while driving and
+     * stage the cargo as soon as they are all in the feeder.
+     *
+     * @param range Range the shot starts at, read when the drive starts
+     */
+    private Command createDriveToShot(Step step, int cargo, DoubleSupplier range) {
+
+        Command stage = new InstantCommand(() -> feeder.setFeedMode(FeedMode.PRESHOOT), feeder);
+        if (step.type == StepType.DRIVE_AND_INTAKE) {
+            stage = new IntakeCommand(intake, feeder, () -> false)
+                    .until(() -> cargoTracker.getFeederCargoCount() >= cargo)
+                    .andThen(stage);
+        }
+
+        return new ParallelDeadlineGroup(
+                new FollowerCommand(drivetrain, trajectoryFactory.getLater(step.trajectory)),
+                stage,
+                new PrepareShotCommand(shooter, limelight, range));
+    }
+
+    /**
+     * @return Range to shoot at, standing still at the given time along a
+     *         trajectory
+     */
+    private double getRange(SampledTrajectory trajectory, double time) {
+        trajectory.calculate(time, state);
+        shotSolver.solve(Constants.HUB_X - state.x, Constants.HUB_Y - state.y, 0, 0);
+        return shotSolver.getRange();
+    }
+
+    /**
+     * Drive that shoots on the way, then optionally intakes for the rest of it.
+     */
+    private Command createShootWhileDriving(Step step) {
+        Supplier<SampledTrajectory> trajectory = trajectoryFactory.getLater(step.trajectory);
+        ShootWhileFollowingCommand shootCommand = new ShootWhileFollowingCommand(shooter, feeder, drivetrain,
+                cargoTracker, trajectory, step.cargo);
+
+        if (step.type != StepType.DRIVE_SHOOT_AND_INTAKE) {
+            return new ParallelDeadlineGroup(new FollowerCommand(drivetrain, trajectory), shootCommand);
+        }
+
+        // The feeder is busy shooting, so the intake goes out on its own for
+        // the whole trajectory and the feeder only starts intaking after.
+        Command deployIntake = new FunctionalCommand(intake::extend, intake::spinBallIn,
+                interrupted -> intake.retract(), () -> false, intake);
+        Command feed = new StartEndCommand(() -> feeder.setFeedMode(FeedMode.INTAKE),
+                () -> feeder.setFeedMode(FeedMode.STOPPED), feeder);
+
+        return new ParallelDeadlineGroup(new FollowerCommand(drivetrain, trajectory),
+                deployIntake, shootCommand.stopBeforeEnd(INTAKE_TIME).andThen(feed));
+    }
+}
@@ -0,0 +1,172 @@
+package frc.robot.utils.trajectory;
+
+import java.nio.DoubleBuffer;
+
+import org.frcteam2910.common.control.Path;
+import org.frcteam2910.common.control.Trajectory;
+
+import frc.robot.utils.MathUtils;
+
+/**
+ * A trajectory stored as a table of states sampled in time. Each row holds the
+ * time, position, heading, rotation, velocity and acceleration of the robot at
+ * that point of the trajectory. The table lives in a DoubleBuffer so it can be
+ * backed by either a heap array or a memory mapped artifact file.
+ *
+ * On construction the rows are also resampled into a uniform time index held in
+ * primitive arrays, so looking up a state by time is an indexed interpolation.
+ */
+public class SampledTrajectory {
+
+    // column layout of a single row in the table
+    public static final int TIME = 0;
+    public static final int X = 1;
+    public static final int Y = 2;
+    public static final int HEADING = 3;
+    public static final int ROTATION = 4;
+    public static final int VELOCITY = 5;
+    public static final int ACCELERATION = 6;
+    public static final int ROW_SIZE = 7;
+
+    // target time between entries of the uniform time index
+    public static final double INDEX_PERIOD = 0.005;
+
+    private final DoubleBuffer table;
+    private final int length;
+
+    // The table rows may be spaced unevenly in time (adaptive generation), so they
+    // are resampled once into arrays indexed directly by time for the follower.
+    private final double duration;
+    private final int indexLength;
+    private final double indexPeriod;
+    private final double[] indexX;
+    private final double[] indexY;
+    private final double[] indexHeading;
+    private final double[] indexRotation;
+    private final double[] indexVelocity;
+    private final double[] indexAcceleration;
+
+    public SampledTrajectory(DoubleBuffer table) {
+        this.table = table;
+        this.length = table.limit() / ROW_SIZE;
+        this.duration = get(length - 1, TIME);
+
+        // Stretch the period slightly so the last entry lands exactly on the end.
+        indexLength = (int) Math.ceil(duration / INDEX_PERIOD) + 1;
+        indexPeriod = indexLength > 1 ? duration / (indexLength - 1) : INDEX_PERIOD;
+        indexX = new double[indexLength];
+        indexY = new double[indexLength];
+        indexHeading = new double[indexLength];
+        indexRotation = new double[indexLength];
+        indexVelocity = new double[indexLength];
+        indexAcceleration = new double[indexLength];
+
+        // Walk the rows once alongside the index.
+        int row = 0;
+        for (int i = 0; i < indexLength; i++) {
+            double time = Math.min(i * indexPeriod, duration);
+            while (row < length - 2 && get(row + 1, TIME) <= time) {
+                row++;
+            }
+
+            int next = Math.min(row + 1, length - 1);
+            double t0 = get(row, TIME);
+            double t1 = get(next, TIME);
+            double fraction = t1 > t0 ? MathUtils.ClipToRange((time - t0) / (t1 - t0), 0, 1) : 0;
+
+            indexX[i] = lerp(get(row, X), get(next, X), fraction);
+            indexY[i] = lerp(get(row, Y), get(next, Y), fraction);
+            indexHeading[i] = interpolateAngle(get(row, HEADING), get(next, HEADING), fraction);
+            indexRotation[i] = interpolateAngle(get(row, ROTATION), get(next, ROTATION), fraction);
+            indexVelocity[i] = lerp(get(row, VELOCITY), get(next, VELOCITY), fraction);
+            indexAcceleration[i] = get(row, ACCELERATION);
+        }
+    }
+
+    /**
+     * Sample a 2910 trajectory every timeStep seconds, always including its final state.
+     */
+    public static SampledTrajectory fromTrajectory(Trajectory trajectory, double timeStep) {
+        double duration = trajectory.getDuration();
+        int samples = (int) Math.ceil(duration / timeStep) + 1;
+        double[] rows = new double[samples * ROW_SIZE];
+
+        for (int i = 0; i < samples; i++) {
+            double time = Math.min(i * timeStep, duration);
+            Trajectory.State state = trajectory.calculate(time);
+            Path.State pathState = state.getPathState();
+
+            int row = i * ROW_SIZE;
+            rows[row + TIME] = time;
+            rows[row + X] = pathState.getPosition().x;
+            rows[row + Y] = pathState.getPosition().y;
+            rows[row + HEADING] = pathState.getHeading().toRadians();
+            rows[row + ROTATION] = pathState.getRotation().toRadians();
+            rows[row + VELOCITY] = state.getVelocity();
+            rows[row + ACCELERATION] = state.getAcceleration();
+        }
+
+        return new SampledTrajectory(DoubleBuffer.wrap(rows));
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public double getDuration() {
+        return duration;
+    }
+
+    public double get(int row, int column) {
+        return table.get(row * ROW_SIZE + column);
+    }
+
+    DoubleBuffer getTable() {
+        return table.duplicate();
+    }
+
+    public State calculate(double time) {
+        State state = new State();
+        calculate(time, state);
+        return state;
+    }
+
+    /**
+     * Calculate the state of the trajectory at a given time into a caller
+     * supplied state. Constant time and does not allocate, so it is safe to call
+     * from the robot loop.
+     */
+    public void calculate(double time, State state) {
+        double position = MathUtils.ClipToRange(time, 0, duration) / indexPeriod;
+        int index = Math.min((int) position, indexLength - 1);
+        int next = Math.min(index + 1, indexLength - 1);
+        double fraction = next > index ? position - index : 0;
+
+        state.time = MathUtils.ClipToRange(time, 0, duration);
+        state.x = lerp(indexX[index], indexX[next], fraction);
+        state.y = lerp(indexY[index], indexY[next], fraction);
+        state.heading = interpolateAngle(indexHeading[index], indexHeading[next], fraction);
+        state.rotation = interpolateAngle(indexRotation[index], indexRotation[next], fraction);
+        state.velocity = lerp(indexVelocity[index], indexVelocity[next], fraction);
+        state.acceleration = indexAcceleration[index];
+    }
+
+    private static double lerp(double a, double b, double fraction) {
+        return a + (b - a) * fraction;
+    }
+
+    static double interpolateAngle(double a, double b, double fraction) {
+        double delta = Math.IEEEremainder(b - a, 2 * Math.PI);
+        return a + delta * fraction;
+    }
+
+    public static class State {
+        public double time;
+        public double x;
+        public double y;
+        public double heading;
+        public double rotation;
+        public double velocity;
+        public double acceleration;
+    }
+}
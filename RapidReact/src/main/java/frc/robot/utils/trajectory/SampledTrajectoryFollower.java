@@ -0,0 +1,102 @@
+package frc.robot.utils.trajectory;
+
+import java.util.Optional;
+
+import org.frcteam2910.common.control.PidConstants;
+import org.frcteam2910.common.control.PidController;
+import org.frcteam2910.common.math.RigidTransform2;
+import org.frcteam2910.common.math.Vector2;
+import org.frcteam2910.common.util.HolonomicDriveSignal;
+import org.frcteam2910.common.util.HolonomicFeedforward;
+
+/**
+ * Holonomic trajectory follower for SampledTrajectory. Mirrors the 2910
+ * HolonomicMotionProfiledTrajectoryFollower: feedforward along the path heading
+ * plus PID on field position and robot rotation.
+ */
+public class SampledTrajectoryFollower {
+
+    private final PidController forwardController;
+    private final PidController strafeController;
+    private final PidController rotationController;
+    private final HolonomicFeedforward feedforward;
+
+    private SampledTrajectory currentTrajectory;
+    private final SampledTrajectory.State lastState = new SampledTrajectory.State();
+    private double startTime = Double.NaN;
+    private boolean finished;
+
+    public SampledTrajectoryFollower(PidConstants translationConstants, PidConstants rotationConstants,
+            HolonomicFeedforward feedforward) {
+        this.forwardController = new PidController(translationConstants);
+        this.strafeController = new PidController(translationConstants);
+        this.rotationController = new PidController(rotationConstants);
+        this.rotationController.setContinuous(true);
+        this.rotationController.setInputRange(0.0, 2.0 * Math.PI);
+        this.feedforward = feedforward;
+    }
+
+    public void follow(SampledTrajectory trajectory) {
+        currentTrajectory = trajectory;
+        startTime = Double.NaN;
+    }
+
+    public void cancel() {
+        currentTrajectory = null;
+    }
+
+    public Optional<SampledTrajectory> getCurrentTrajectory() {
+        return Optional.ofNullable(currentTrajectory);
+    }
+
+    public SampledTrajectory.State getLastState() {
+        return lastState;
+    }
+
+    public Optional<HolonomicDriveSignal> update(RigidTransform2 currentPose, Vector2 velocity,
+            double rotationalVelocity, double time, double dt) {
+        if (currentTrajectory == null) {
+            return Optional.empty();
+        }
+
+        if (Double.isNaN(startTime)) {
+            startTime = time;
+            reset();
+        } else if (finished) {
+            currentTrajectory = null;
+            return Optional.empty();
+        }
+
+        double timeSinceStart = time - startTime;
+        if (timeSinceStart > currentTrajectory.getDuration()) {
+            finished = true;
+            return Optional.of(new HolonomicDriveSignal(Vector2.ZERO, 0.0, false));
+        }
+
+        currentTrajectory.calculate(timeSinceStart, lastState);
+
+        double headingCos = Math.cos(lastState.heading);
+        double headingSin = Math.sin(lastState.heading);
+        Vector2 feedforwardVector = feedforward.calculateFeedforward(
+                new Vector2(headingCos * lastState.velocity, headingSin * lastState.velocity),
+                new Vector2(headingCos * lastState.acceleration, headingSin * lastState.acceleration));
+
+        forwardController.setSetpoint(lastState.x);
+        strafeController.setSetpoint(lastState.y);
+        rotationController.setSetpoint(lastState.rotation);
+
+        return Optional.of(new HolonomicDriveSignal(
+                new Vector2(
+                        forwardController.calculate(currentPose.translation.x, dt) + feedforwardVector.x,
+                        strafeController.calculate(currentPose.translation.y, dt) + feedforwardVector.y),
+                rotationController.calculate(currentPose.rotation.toRadians(), dt),
+                true));
+    }
+
+    private void reset() {
+        forwardController.reset();
+        strafeController.reset();
+        rotationController.reset();
+        finished = false;
+    }
+}
@@ -0,0 +1,135 @@
+package frc.robot.utils.trajectory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import org.frcteam2910.common.control.Path;
+
+/**
+ * Reads and writes the precompiled trajectory files deployed with the robot code.
+ *
+ * File layout (little endian):
+ *   int    magic
+ *   int    format version
+ *   long   hash of the path and constraints the trajectory was generated from
+ *   int    number of rows
+ *   int    reserved, keeps the table 8 byte aligned
+ *   double rows[number of rows][SampledTrajectory.ROW_SIZE]
+ */
+public class TrajectoryArtifact {
+
+    public static final String EXTENSION = ".traj";
+
+    private static final int MAGIC = 0x4A415254; // "TRAJ"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+
+    // number of points along the path that are folded into its hash
+    private static final int HASH_SAMPLES = 64;
+    // Values are rounded to this before hashing. Math.sin/cos are not bit for
+    // bit the same on the development machine and the roboRIO, and the last
+    // bit must not make an artifact look stale.
+    private static final double HASH_RESOLUTION = 1e-6;
+
+    public static File fileFor(File directory, String name) {
+        return new File(directory, name.replace(' ', '_') + EXTENSION);
+    }
+
+    /**
+     * Hash everything a trajectory depends on so that a stale artifact can be
+     * detected when a path or a constraint is changed in code.
+     */
+    public static long hash(Path path, double sampleDistance, double... constraintParameters) {
+        long hash = 1125899906842597L;
+        hash = mix(hash, VERSION);
+        hash = mix(hash, sampleDistance);
+        for (double parameter : constraintParameters) {
+            hash = mix(hash, parameter);
+        }
+
+        double length = path.getLength();
+        hash = mix(hash, length);
+        for (int i = 0; i <= HASH_SAMPLES; i++) {
+            Path.State state = path.calculate(length * i / HASH_SAMPLES);
+            hash = mix(hash, state.getPosition().x);
+            hash = mix(hash, state.getPosition().y);
+            hash = mix(hash, state.getRotation().toRadians());
+        }
+
+        return hash;
+    }
+
+    private static long mix(long hash, double value) {
+        return 31 * hash + Math.round(value / HASH_RESOLUTION);
+    }
+
+    public static void write(File file, SampledTrajectory trajectory, long hash) throws IOException {
+        DoubleBuffer table = trajectory.getTable();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + table.remaining() * Double.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(hash);
+        buffer.putInt(trajectory.length());
+        buffer.putInt(0);
+        buffer.asDoubleBuffer().put(table);
+        buffer.rewind();
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Memory map a trajectory artifact.
+     *
+     * @return the trajectory, or null if the file is missing, malformed or was
+     *         generated from a different path or constraints than expected
+     */
+    public static SampledTrajectory load(File file, long expectedHash) {
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try (RandomAccessFile input = new RandomAccessFile(file, "r");
+                FileChannel channel = input.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (buffer.remaining() < HEADER_SIZE
+                    || buffer.getInt() != MAGIC
+                    || buffer.getInt() != VERSION) {
+                System.out.println("Ignoring trajectory " + file + ": not a version " + VERSION + " artifact");
+                return null;
+            }
+            if (buffer.getLong() != expectedHash) {
+                System.out.println("Ignoring trajectory " + file + ": generated from a different path or constraints");
+                return null;
+            }
+
+            int rows = buffer.getInt();
+            buffer.getInt();
+            if (rows < 1 || buffer.remaining() != rows * SampledTrajectory.ROW_SIZE * Double.BYTES) {
+                System.out.println("Ignoring trajectory " + file + ": truncated");
+                return null;
+            }
+
+            // The mapping stays valid after the channel is closed.
+            return new SampledTrajectory(buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer());
+        } catch (IOException e) {
+            System.out.println("Unable to load trajectory " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+}
@@ -1,10 +1,20 @@
 package frc.robot.utils.trajectory;
 
+import org.frcteam2910.common.control.Path;
 import org.frcteam2910.common.control.SplinePathBuilder;
 import org.frcteam2910.common.control.Trajectory;
 import org.frcteam2910.common.control.TrajectoryConstraint;
 
-import java.util.HashMap;
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 import org.frcteam2910.common.control.CentripetalAccelerationConstraint;
 import org.frcteam2910.common.control.FeedforwardConstraint;
@@ -14,20 +24,46 @@ import org.frcteam2910.common.control.SimplePathBuilder;
 import org.frcteam2910.common.math.Rotation2;
 import org.frcteam2910.common.math.Vector2;
 
+import edu.wpi.first.wpilibj.Filesystem;
 import frc.robot.commands.FollowerCommand;
 
 public class TrajectoryFactory {
 
+    // precompiled trajectories are deployed to this folder under the deploy directory
+    public static final String ARTIFACT_DIRECTORY = "trajectories";
+
+    public enum GenerationMode {
+        FIXED, // 2910 Trajectory sampled every sampleDistance
+        ADAPTIVE // sample spacing chosen from curvature and constraint activity
+    }
+
+    // switch to ADAPTIVE once the trajectoryReport gradle task shows it matches FIXED
+    private static GenerationMode generationMode = GenerationMode.FIXED;
+
     // smaller sample distance, more precision
     private static double sampleDistance = 0.00254;
 
+    // adaptive sampling bounds, see AdaptiveTrajectoryGenerator
+    private static final double ADAPTIVE_MIN_STEP = 0.00254;
+    private static final double ADAPTIVE_MAX_STEP = 0.1;
+    private static final double ADAPTIVE_MAX_HEADING_CHANGE = Math.toRadians(1);
+    private static final double ADAPTIVE_VELOCITY_TOLERANCE = 0.05;
+
+    private static final AdaptiveTrajectoryGenerator adaptiveGenerator = new AdaptiveTrajectoryGenerator(
+            ADAPTIVE_MIN_STEP, ADAPTIVE_MAX_STEP, ADAPTIVE_MAX_HEADING_CHANGE, ADAPTIVE_VELOCITY_TOLERANCE);
+
+    // constraint parameters, also hashed into the precompiled trajectories
+    private static final double MAX_ACCELERATION = 1.5;
+    private static final double MAX_FEEDFORWARD = 10; //10
+    private static final double MAX_CENTRIPETAL_ACCELERATION = 4; //4
+
     // constraints
     public static TrajectoryConstraint[] constraints = {
-            new MaxAccelerationConstraint(1.5),
-            new FeedforwardConstraint(10, //10
+            new MaxAccelerationConstraint(MAX_ACCELERATION),
+            new FeedforwardConstraint(MAX_FEEDFORWARD,
                     FollowerCommand.FEEDFORWARD_CONSTANTS.getVelocityConstant(),
                     FollowerCommand.FEEDFORWARD_CONSTANTS.getAccelerationConstant()),
-            new CentripetalAccelerationConstraint(4) //4
+            new CentripetalAccelerationConstraint(MAX_CENTRIPETAL_ACCELERATION)
     };
 
     // unused
@@ -56,120 +92,271 @@ public class TrajectoryFactory {
     // 7. tune AcConstraint : robot goes through the curve at the reasonable speed
     // while hitting target
 
-    private HashMap<String, Trajectory> trajectories = new HashMap<String, Trajectory>();
+    private LinkedHashMap<String, Path> paths = new LinkedHashMap<String, Path>();
+    private ConcurrentHashMap<String, CompletableFuture<SampledTrajectory>> trajectories = new ConcurrentHashMap<String, CompletableFuture<SampledTrajectory>>();
 
-    private Trajectory tuneLine = new Trajectory(
-        new SimplePathBuilder(new Vector2(0, 0), Rotation2.ZERO)
+    // Asynchronous mode generates trajectories without an up to date artifact on
+    // a low priority worker the first time they are requested, instead of all of
+    // them on the main thread while the factory is constructed.
+    private final boolean asynchronous;
+    private ExecutorService generator;
+
+    private Path tuneLine = new SimplePathBuilder(new Vector2(0, 0), Rotation2.ZERO)
             .lineTo(new Vector2(5, 0), Rotation2.fromDegrees(0))
-            .build(),
-        constraints,
-        sampleDistance);
+            .build();
 
-    private Trajectory tuneCurve = new Trajectory(
-        new SplinePathBuilder(new Vector2(0, 0), Rotation2.ZERO, Rotation2.ZERO)
+    private Path tuneCurve = new SplinePathBuilder(new Vector2(0, 0), Rotation2.ZERO, Rotation2.ZERO)
             .hermite(new Vector2(2, 2), Rotation2.fromDegrees(180), Rotation2.ZERO)
-            .build(),
-        constraints,
-        sampleDistance);
-    
+            .build();
+
     /*
-    private Trajectory wrong_start_ball2 = new Trajectory(
-        new SplinePathBuilder(new Vector2(-0.5, -2), new Rotation2(-.5, -2, true), Rotation2.fromDegrees(-90))
+    private Path wrong_start_ball2 = new SplinePathBuilder(new Vector2(-0.5, -2), new Rotation2(-.5, -2, true), Rotation2.fromDegrees(-90))
             .hermite(new Vector2(-.58, -2.85), new Rotation2(0, 1, true), Rotation2.fromDegrees(-90))
             // .hermite(new Vector2(-2, -2), new Rotation2(-3.5, -2.2, true),
             // Rotation2.fromDegrees(163.8720703125))
             // .hermite(new Vector2(-3.38, -1.56), new Rotation2(-3.20, -1.14, true),
             // Rotation2.fromDegrees(-136))
-            .build(),
-        constraints,
-        sampleDistance);
+            .build();
     */
 
-    private Trajectory back = new Trajectory(
-        new SimplePathBuilder(new Vector2(-0.5, -4), Rotation2.fromDegrees(-90))
+    private Path back = new SimplePathBuilder(new Vector2(-0.5, -4), Rotation2.fromDegrees(-90))
             .lineTo(new Vector2(-0.5, -2), Rotation2.fromDegrees(-90))
-            .build(),
-            constraints,
-            sampleDistance);
-
-            private Trajectory forward = new Trajectory(
-                new SimplePathBuilder(new Vector2(-0.5, -2), Rotation2.fromDegrees(-90))
-                    .lineTo(new Vector2(-.58, -4), Rotation2.fromDegrees(-90))
-                    .build(),
-                    constraints,
-                    sampleDistance);
-    
-    private Trajectory start_ball2 = new Trajectory(
-        new SimplePathBuilder(new Vector2(-0.5, -2), Rotation2.fromDegrees(-90))
+            .build();
+
+    private Path forward = new SimplePathBuilder(new Vector2(-0.5, -2), Rotation2.fromDegrees(-90))
+            .lineTo(new Vector2(-.58, -4), Rotation2.fromDegrees(-90))
+            .build();
+
+    private Path start_ball2 = new SimplePathBuilder(new Vector2(-0.5, -2), Rotation2.fromDegrees(-90))
             .lineTo(new Vector2(-.58, -2.95), Rotation2.fromDegrees(-90))
-            .build(),
-            constraints,
-            sampleDistance);
+            .build();
 
-    private Trajectory ball2_ball3 = new Trajectory(
-        new SplinePathBuilder(new Vector2(-0.58, -2.95), new Rotation2(0, 1, true), Rotation2.fromDegrees(-90))
+    private Path ball2_ball3 = new SplinePathBuilder(new Vector2(-0.58, -2.95), new Rotation2(0, 1, true), Rotation2.fromDegrees(-90))
             .hermite(new Vector2(-3.38, -1.76), new Rotation2(-3.20, -1.14, true), Rotation2.fromDegrees(-154))
-            .build(),
-            constraints,
-            sampleDistance);
+            .build();
 
     /*
-     * public static Trajectory ball2_ball3 = new Trajectory(
-     * new SplinePathBuilder(new Vector2(-.6, -3.5), new Rotation2(-2, -2, true),
+     * public static Path ball2_ball3 = new SplinePathBuilder(new Vector2(-.6, -3.5), new Rotation2(-2, -2, true),
      * Rotation2.fromDegrees(-90))
      * .hermite(new Vector2(-2, -2), new Rotation2(-3.5, -2.2, true),
      * Rotation2.fromDegrees(163.8720703125))
      * .hermite(new Vector2(-3.2, -2.2), new Rotation2(-2, -2, true),
      * Rotation2.fromDegrees(-114.96093749999997))
-     * .build(),
-     * slow,
-     * sampleDistance);
+     * .build();
      */
 
-    private Trajectory ball3_station = new Trajectory(
-        new SplinePathBuilder(new Vector2(-3.38, -1.76), new Rotation2(-7.2, -2.2, true), Rotation2.fromDegrees(-114.96093749999997))
+    private Path ball3_station = new SplinePathBuilder(new Vector2(-3.38, -1.76), new Rotation2(-7.2, -2.2, true), Rotation2.fromDegrees(-114.96093749999997))
             .hermite(new Vector2(-6.92, -2.31), new Rotation2(-7.2, -2.2, true), Rotation2.fromDegrees(-149)) // 7.2, 2.2
             // .hermite(new Vector2(-3.38, -1.56), new Rotation2(1, 1, true),
             // Rotation2.fromDegrees(-155))
-            .build(),
-        constraints,
-        sampleDistance);
-        
-    private Trajectory station_shoot = new Trajectory(
-        new SplinePathBuilder(new Vector2(-6.92, -2.31), Rotation2.ZERO, Rotation2.fromDegrees(-149))
+            .build();
+
+    private Path station_shoot = new SplinePathBuilder(new Vector2(-6.92, -2.31), Rotation2.ZERO, Rotation2.fromDegrees(-149))
             .hermite(new Vector2(-3.38, -1.76), Rotation2.ZERO, Rotation2.fromDegrees(-154))
-            .build(),
-        constraints,
-        sampleDistance);
+            .build();
 
-    private Trajectory ball3_station_line = new Trajectory(
-        new SimplePathBuilder(new Vector2(-3.38, -1.76), Rotation2.fromDegrees(-114.96093749999997))
+    private Path ball3_station_line = new SimplePathBuilder(new Vector2(-3.38, -1.76), Rotation2.fromDegrees(-114.96093749999997))
             .lineTo(new Vector2(-6.92, -2.31), Rotation2.fromDegrees(-149))
-            .build(),
-        constraints,
-        sampleDistance);
-            
-    private Trajectory station_shoot_line = new Trajectory(
-            new SimplePathBuilder(new Vector2(-6.92, -2.31), Rotation2.fromDegrees(-149))
-                .lineTo(new Vector2(-4, -2.08), Rotation2.fromDegrees(-154))
-                .build(),
-            constraints,
-            sampleDistance);
-   
+            .build();
+
+    private Path station_shoot_line = new SimplePathBuilder(new Vector2(-6.92, -2.31), Rotation2.fromDegrees(-149))
+            .lineTo(new Vector2(-4, -2.08), Rotation2.fromDegrees(-154))
+            .build();
+
     public TrajectoryFactory() {
-        trajectories.put("tune line", tuneLine);
-        trajectories.put("tune curve", tuneCurve);
-        trajectories.put("start to ball2", start_ball2);
-        trajectories.put("ball2 to ball3", ball2_ball3);
-        trajectories.put("ball3 to station", ball3_station);
-        trajectories.put("station to shoot", station_shoot);
-        trajectories.put("ball3 to station line", ball3_station_line);
-        trajectories.put("station to shoot line", station_shoot_line);
-        trajectories.put("back", back);
-        trajectories.put("forward", forward);
-    }
-
-    public Trajectory get(String name) {
-        return trajectories.get(name);
+        this(true);
+    }
+
+    public TrajectoryFactory(boolean asynchronous) {
+        this(new File(Filesystem.getDeployDirectory(), ARTIFACT_DIRECTORY), asynchronous);
+    }
+
+    /**
+     * @param artifactDirectory Folder holding precompiled trajectories, or null to
+     *                          skip loading (used when compiling them)
+     * @param asynchronous      Generate missing trajectories on demand in the
+     *                          background instead of eagerly in the constructor
+     */
+    public TrajectoryFactory(File artifactDirectory, boolean asynchronous) {
+        this.asynchronous = asynchronous;
+
+        paths.put("tune line", tuneLine);
+        paths.put("tune curve", tuneCurve);
+        paths.put("start to ball2", start_ball2);
+        paths.put("ball2 to ball3", ball2_ball3);
+        paths.put("ball3 to station", ball3_station);
+        paths.put("station to shoot", station_shoot);
+        paths.put("ball3 to station line", ball3_station_line);
+        paths.put("station to shoot line", station_shoot_line);
+        paths.put("back", back);
+        paths.put("forward", forward);
+
+        if (artifactDirectory != null) {
+            loadTrajectories(artifactDirectory);
+        }
+    }
+
+    /**
+     * Load each trajectory from its precompiled artifact, falling back to
+     * generating it if the artifact is missing or stale. In asynchronous mode the
+     * fallback is left until the trajectory is first requested.
+     */
+    private void loadTrajectories(File artifactDirectory) {
+        for (String name : paths.keySet()) {
+            SampledTrajectory trajectory = TrajectoryArtifact.load(
+                    TrajectoryArtifact.fileFor(artifactDirectory, name), getHash(name));
+
+            if (trajectory != null) {
+                trajectories.put(name, CompletableFuture.completedFuture(trajectory));
+            } else {
+                System.out.println("Trajectory '" + name + "' has no up to date artifact, generating it"
+                        + (asynchronous ? " on demand" : ""));
+                if (!asynchronous) {
+                    trajectories.put(name, CompletableFuture.completedFuture(generate(name)));
+                }
+            }
+        }
+    }
+
+    private synchronized ExecutorService getGenerator() {
+        if (generator == null) {
+            // Leave a core for the robot loop, the roboRIO only has two.
+            int workers = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+            AtomicInteger count = new AtomicInteger();
+
+            generator = Executors.newFixedThreadPool(workers, runnable -> {
+                Thread thread = new Thread(runnable, "TrajectoryGenerator-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+        }
+        return generator;
+    }
+
+    public Set<String> getNames() {
+        return paths.keySet();
+    }
+
+    public long getHash(String name) {
+        return TrajectoryArtifact.hash(paths.get(name), sampleDistance,
+                MAX_ACCELERATION,
+                MAX_FEEDFORWARD,
+                MAX_CENTRIPETAL_ACCELERATION,
+                FollowerCommand.FEEDFORWARD_CONSTANTS.getVelocityConstant(),
+                FollowerCommand.FEEDFORWARD_CONSTANTS.getAccelerationConstant(),
+                FollowerCommand.SAMPLE_PERIOD,
+                generationMode.ordinal(),
+                ADAPTIVE_MIN_STEP,
+                ADAPTIVE_MAX_STEP,
+                ADAPTIVE_MAX_HEADING_CHANGE,
+                ADAPTIVE_VELOCITY_TOLERANCE);
+    }
+
+    /**
+     * Generate a trajectory from its path and our constraints.
+     */
+    public SampledTrajectory generate(String name) {
+        return generate(name, generationMode);
+    }
+
+    public SampledTrajectory generate(String name, GenerationMode mode) {
+        if (mode == GenerationMode.ADAPTIVE) {
+            return adaptiveGenerator.generate(paths.get(name), constraints);
+        }
+
+        Trajectory trajectory = new Trajectory(paths.get(name), constraints, sampleDistance);
+        return SampledTrajectory.fromTrajectory(trajectory, FollowerCommand.SAMPLE_PERIOD);
+    }
+
+    /**
+     * Print how closely adaptive sampling matches the fixed sample distance for
+     * every path. Run on the development machine by the trajectoryReport gradle task.
+     */
+    public void report() {
+        for (String name : paths.keySet()) {
+            SampledTrajectory fixed = generate(name, GenerationMode.FIXED);
+            SampledTrajectory adaptive = generate(name, GenerationMode.ADAPTIVE);
+            int fixedSamples = (int) Math.ceil(paths.get(name).getLength() / sampleDistance) + 1;
+
+            System.out.println(TrajectoryReport.compare(name, fixed, fixedSamples, adaptive, adaptive.length()));
+        }
+    }
+
+    /**
+     * Generate every trajectory and write it into the given folder. Run on the
+     * development machine by the generateTrajectories gradle task.
+     */
+    public void compile(File artifactDirectory) throws IOException {
+        artifactDirectory.mkdirs();
+
+        for (String name : paths.keySet()) {
+            File file = TrajectoryArtifact.fileFor(artifactDirectory, name);
+            TrajectoryArtifact.write(file, generate(name), getHash(name));
+            System.out.println("Wrote " + file);
+        }
+    }
+
+    /**
+     * Get a future for the named trajectory, starting its generation in the
+     * background if it is not loaded or already pending.
+     *
+     * @return future for the trajectory, or null if there is no path with that name
+     */
+    public CompletableFuture<SampledTrajectory> getFuture(String name) {
+        if (!paths.containsKey(name)) {
+            return null;
+        }
+
+        return trajectories.computeIfAbsent(name,
+                key -> CompletableFuture.supplyAsync(() -> generate(key), getGenerator()));
+    }
+
+    /**
+     * Start generating trajectories ahead of when they are needed.
+     */
+    public void prefetch(String... names) {
+        for (String name : names) {
+            getFuture(name);
+        }
+    }
+
+    /**
+     * Get the named trajectory when it is needed rather than now. Starts its
+     * generation in the background, and the supplier only blocks if it is
+     * called before that finishes. Build commands with this so creating them
+     * never waits on generation.
+     */
+    public Supplier<SampledTrajectory> getLater(String name) {
+        getFuture(name);
+        return () -> get(name);
+    }
+
+    /**
+     * @return True if the named trajectory is still being generated
+     */
+    public boolean isPending(String name) {
+        CompletableFuture<SampledTrajectory> future = trajectories.get(name);
+        return future != null && !future.isDone();
+    }
+
+    /**
+     * Get the named trajectory, blocking only if it is still being generated.
+     */
+    public SampledTrajectory get(String name) {
+        CompletableFuture<SampledTrajectory> future = getFuture(name);
+        return future == null ? null : future.join();
+    }
+
+    public static void main(String[] args) throws IOException {
+        TrajectoryFactory factory = new TrajectoryFactory(null, false);
+
+        if (args.length > 0 && args[0].equals("--report")) {
+            factory.report();
+            return;
+        }
+
+        File artifactDirectory = new File(args.length > 0 ? args[0] : "src/main/deploy/" + ARTIFACT_DIRECTORY);
+        factory.compile(artifactDirectory);
     }
 }
@@ -0,0 +1,43 @@
+package frc.robot.utils.trajectory;
+
+/**
+ * Compares a trajectory against a reference generated from the same path, used
+ * to check that adaptive sampling still matches the fixed sample distance output.
+ */
+public class TrajectoryReport {
+
+    // time step the two trajectories are compared at
+    private static final double COMPARE_PERIOD = 0.005;
+
+    public static String compare(String name, SampledTrajectory reference, int referenceSamples,
+            SampledTrajectory candidate, int candidateSamples) {
+        double duration = Math.max(reference.getDuration(), candidate.getDuration());
+
+        double maxVelocityError = 0;
+        double sumSquaredVelocityError = 0;
+        double maxPositionError = 0;
+        int count = 0;
+
+        for (double time = 0; time <= duration; time += COMPARE_PERIOD) {
+            SampledTrajectory.State expected = reference.calculate(time);
+            SampledTrajectory.State actual = candidate.calculate(time);
+
+            double velocityError = Math.abs(actual.velocity - expected.velocity);
+            double positionError = Math.hypot(actual.x - expected.x, actual.y - expected.y);
+
+            maxVelocityError = Math.max(maxVelocityError, velocityError);
+            maxPositionError = Math.max(maxPositionError, positionError);
+            sumSquaredVelocityError += velocityError * velocityError;
+            count++;
+        }
+
+        return String.format(
+                "%-22s samples %6d -> %5d (%5.1fx)  duration %.3fs -> %.3fs  "
+                        + "velocity error max %.4f rms %.4f m/s  position error max %.4f m",
+                name,
+                referenceSamples, candidateSamples, (double) referenceSamples / candidateSamples,
+                reference.getDuration(), candidate.getDuration(),
+                maxVelocityError, Math.sqrt(sumSquaredVelocityError / count),
+                maxPositionError);
+    }
+}
@@ -9,6 +9,7 @@ import edu.wpi.first.wpilibj2.command.button.POVButton;
 
 import static frc.robot.Constants.*;
 
+import frc.robot.commands.CharacterizeShooterCommand;
 import frc.robot.subsystems.FeederSubsystem;
 import frc.robot.subsystems.ShooterSubsystem;
 
@@ -56,6 +57,10 @@ public class RobotContainer {
     new JoystickButton(controller, Button.kY.value)
         .whenPressed(new InstantCommand(() -> shooter.dumpPIDCoefficients(), shooter));
 
+    // The B button runs the automated flywheel and hood characterization, Back
+    // interrupts it.
+    new JoystickButton(controller, Button.kB.value).whenPressed(new CharacterizeShooterCommand(shooter));
+
     // POV up and down raise and lower hood.
     new POVButton(controller, 0).whenPressed(new InstantCommand(() -> shooter.raiseHood(), shooter));
     new POVButton(controller, 180).whenPressed(new InstantCommand(() -> shooter.lowerHood(), shooter));
@@ -0,0 +1,317 @@
+package frc.robot.commands;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import edu.wpi.first.wpilibj.Filesystem;
+import edu.wpi.first.wpilibj.Notifier;
+import edu.wpi.first.wpilibj.Timer;
+import edu.wpi.first.wpilibj2.command.CommandBase;
+
+import frc.robot.subsystems.ShooterSubsystem;
+import frc.robot.utils.LeastSquares;
+
+/**
+ * Runs the flywheel and hood through a fixed set of open loop voltage profiles,
+ * logs what they do and fits feedforward gains to the result.
+ *
+ * The flywheel gets a slow voltage ramp, a coast down, a voltage step and
+ * another coast down. kS, kV and kA are fit to
+ * V = kS + kV * speed + kA * acceleration from the ramp and the step only: the
+ * motors are in coast mode, so at 0 output the bridge floats and the voltage
+ * across the motor is not the 0 V that was commanded. The hood is ramped up and back
+ * down, from which kS, kG and kV are fit to V = kS * sign(v) + kG + kV * v.
+ *
+ * Samples are taken every 5ms on a Notifier and written to a CSV file in the
+ * operating directory (/home/lvuser on the robot) when the run ends. The gains
+ * are printed to the Rio log as Java declarations, like dumpPIDCoefficients,
+ * and the flywheel gains are also written to shooter_gains.csv next to the
+ * samples, where the competition robot code loads them for its RIO control
+ * mode.
+ * Interrupting the command (e.g. with the Back button) stops the motors and
+ * still saves and fits whatever was recorded.
+ */
+public class CharacterizeShooterCommand extends CommandBase {
+
+  private enum Phase {
+    FLYWHEEL_RAMP(14),
+    FLYWHEEL_COAST(5),
+    FLYWHEEL_STEP(3),
+    FLYWHEEL_STEP_COAST(6),
+    HOOD_UP(6),
+    HOOD_DOWN(6);
+
+    final double duration;
+
+    Phase(double duration) {
+      this.duration = duration;
+    }
+  }
+
+  private static final double SAMPLE_PERIOD = 0.005;
+
+  // read by the competition robot code, see its ShooterSubsystem
+  private static final String FLYWHEEL_GAINS_FILE = "shooter_gains.csv";
+
+  private static final double FLYWHEEL_RAMP_RATE = 0.5; // volts per second
+  private static final double FLYWHEEL_MAX_VOLTAGE = 7;
+  private static final double FLYWHEEL_STEP_VOLTAGE = 6;
+  private static final double HOOD_RAMP_RATE = 0.25; // volts per second
+  private static final double HOOD_LIMIT_MARGIN = 1; // rotations kept clear of each end of travel
+
+  // samples slower than these are left out of the fits, static friction dominates
+  private static final double FLYWHEEL_MIN_SPEED = 50; // RPM
+  private static final double HOOD_MIN_SPEED = 0.05; // rotations per second
+
+  // sample columns
+  private static final int TIME = 0;
+  private static final int PHASE = 1;
+  private static final int SHOOTER_VOLTAGE = 2;
+  private static final int SHOOTER_SPEED = 3;
+  private static final int SHOOTER_CURRENT = 4;
+  private static final int HOOD_VOLTAGE = 5;
+  private static final int HOOD_POSITION = 6;
+  private static final int HOOD_SPEED = 7;
+  private static final int HOOD_CURRENT = 8;
+  private static final int COLUMNS = 9;
+  private static final String HEADER = "time,phase,shooter_voltage,shooter_rpm,shooter_current,"
+      + "hood_voltage,hood_position,hood_rps,hood_current";
+
+  private final ShooterSubsystem shooter;
+  private final Notifier notifier;
+  private final double[][] samples;
+
+  // written by the notifier thread, read by the command once it has stopped
+  private volatile int sampleCount;
+  private volatile boolean done;
+  private double startTime;
+
+  public CharacterizeShooterCommand(ShooterSubsystem shooter) {
+    this.shooter = shooter;
+
+    double duration = 0;
+    for (Phase phase : Phase.values()) {
+      duration += phase.duration;
+    }
+    samples = new double[(int) Math.ceil(duration / SAMPLE_PERIOD) + 100][COLUMNS];
+
+    notifier = new Notifier(this::sample);
+    notifier.setName("ShooterCharacterization");
+
+    addRequirements(shooter);
+  }
+
+  @Override
+  public void initialize() {
+    sampleCount = 0;
+    done = false;
+    startTime = Double.NaN;
+  }
+
+  @Override
+  public void execute() {
+    // The hood has to be parked first so its position is known.
+    if (Double.isNaN(startTime) && shooter.isHoodParked()) {
+      System.out.println("Starting shooter characterization");
+      shooter.setCharacterizationCurrentLimit(true);
+      startTime = Timer.getFPGATimestamp();
+      notifier.startPeriodic(SAMPLE_PERIOD);
+    }
+  }
+
+  @Override
+  public boolean isFinished() {
+    return done;
+  }
+
+  @Override
+  public void end(boolean interrupted) {
+    notifier.stop();
+    shooter.setShooterVoltage(0);
+    shooter.setHoodVoltage(0);
+    shooter.setCharacterizationCurrentLimit(false);
+
+    if (sampleCount == 0) {
+      return;
+    }
+    if (interrupted) {
+      System.out.println("Shooter characterization interrupted, fitting the partial run");
+    }
+
+    save();
+    fitFlywheel();
+    fitHood();
+  }
+
+  /**
+   * Set the voltages for the current point of the profile and record a sample.
+   * Runs on the notifier.
+   */
+  private void sample() {
+    if (done) {
+      return;
+    }
+
+    double time = Timer.getFPGATimestamp() - startTime;
+    Phase phase = null;
+    double phaseTime = time;
+    for (Phase candidate : Phase.values()) {
+      if (phaseTime < candidate.duration) {
+        phase = candidate;
+        break;
+      }
+      phaseTime -= candidate.duration;
+    }
+
+    if (phase == null || sampleCount >= samples.length) {
+      shooter.setShooterVoltage(0);
+      shooter.setHoodVoltage(0);
+      done = true;
+      return;
+    }
+
+    double shooterVoltage = 0;
+    double hoodVoltage = 0;
+    double hoodPosition = shooter.getHoodPosition();
+    switch (phase) {
+      case FLYWHEEL_RAMP:
+        shooterVoltage = Math.min(FLYWHEEL_RAMP_RATE * phaseTime, FLYWHEEL_MAX_VOLTAGE);
+        break;
+      case FLYWHEEL_STEP:
+        shooterVoltage = FLYWHEEL_STEP_VOLTAGE;
+        break;
+      case HOOD_UP:
+        if (hoodPosition < ShooterSubsystem.HOOD_UPPER_LIMIT - HOOD_LIMIT_MARGIN) {
+          hoodVoltage = HOOD_RAMP_RATE * phaseTime;
+        }
+        break;
+      case HOOD_DOWN:
+        if (hoodPosition > ShooterSubsystem.HOOD_LOWER_LIMIT + HOOD_LIMIT_MARGIN) {
+          hoodVoltage = -HOOD_RAMP_RATE * phaseTime;
+        }
+        break;
+      default:
+        break;
+    }
+    shooter.setShooterVoltage(shooterVoltage);
+    shooter.setHoodVoltage(hoodVoltage);
+
+    double[] row = samples[sampleCount];
+    row[TIME] = time;
+    row[PHASE] = phase.ordinal();
+    row[SHOOTER_VOLTAGE] = shooter.getShooterVoltage();
+    row[SHOOTER_SPEED] = shooter.getShooterVelocity();
+    row[SHOOTER_CURRENT] = shooter.getShooterCurrent();
+    row[HOOD_VOLTAGE] = shooter.getHoodVoltage();
+    row[HOOD_POSITION] = hoodPosition;
+    row[HOOD_SPEED] = shooter.getHoodVelocity();
+    row[HOOD_CURRENT] = shooter.getHoodCurrent();
+    sampleCount++;
+  }
+
+  private void save() {
+    String name = "shooter_characterization_" + new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date()) + ".csv";
+    File file = new File(Filesystem.getOperatingDirectory(), name);
+
+    try (PrintWriter writer = new PrintWriter(new FileWriter(file))) {
+      writer.println(HEADER);
+      for (int i = 0; i < sampleCount; i++) {
+        double[] row = samples[i];
+        writer.printf("%.4f,%s,%.3f,%.1f,%.2f,%.3f,%.4f,%.4f,%.2f%n",
+            row[TIME], Phase.values()[(int) row[PHASE]], row[SHOOTER_VOLTAGE], row[SHOOTER_SPEED],
+            row[SHOOTER_CURRENT], row[HOOD_VOLTAGE], row[HOOD_POSITION], row[HOOD_SPEED], row[HOOD_CURRENT]);
+      }
+      System.out.println("Wrote " + sampleCount + " characterization samples to " + file);
+    } catch (IOException e) {
+      System.out.println("Could not write characterization samples to " + file + ": " + e.getMessage());
+    }
+  }
+
+  private boolean inPhase(double[] row, Phase... phases) {
+    for (Phase phase : phases) {
+      if ((int) row[PHASE] == phase.ordinal()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void fitFlywheel() {
+    LeastSquares fit = new LeastSquares(3);
+
+    // Acceleration by central difference, so the first and last samples are skipped.
+    // Coast phases are left out, the applied voltage is unknown while the bridge floats.
+    for (int i = 1; i < sampleCount - 1; i++) {
+      double[] row = samples[i];
+      if (!inPhase(row, Phase.FLYWHEEL_RAMP, Phase.FLYWHEEL_STEP) || row[SHOOTER_SPEED] < FLYWHEEL_MIN_SPEED) {
+        continue;
+      }
+      double acceleration = (samples[i + 1][SHOOTER_SPEED] - samples[i - 1][SHOOTER_SPEED])
+          / (samples[i + 1][TIME] - samples[i - 1][TIME]);
+      fit.add(row[SHOOTER_VOLTAGE], 1, row[SHOOTER_SPEED], acceleration);
+    }
+
+    double[] gains = fit.solve();
+    if (gains == null) {
+      System.out.println("Not enough flywheel data to fit (" + fit.getCount() + " samples)");
+      return;
+    }
+
+    System.out.println("--------------------------------------------------------");
+    System.out.printf("// flywheel fit from %d samples, speeds in shooter RPM\n", fit.getCount());
+    System.out.printf("private static final double kShooterS = %f;\n", gains[0]);
+    System.out.printf("private static final double kShooterV = %f;\n", gains[1]);
+    System.out.printf("private static final double kShooterA = %f;\n", gains[2]);
+    System.out.printf("private static final double kShooterFF = %f;\n", gains[1] / 12.0);
+    System.out.println("--------------------------------------------------------");
+
+    writeFlywheelGains(gains, fit.getCount());
+  }
+
+  /**
+   * Write the flywheel gains where the competition robot code's ShooterSubsystem
+   * reads them: one line of kS, kV, kA in the operating directory.
+   */
+  private void writeFlywheelGains(double[] gains, int count) {
+    File file = new File(Filesystem.getOperatingDirectory(), FLYWHEEL_GAINS_FILE);
+
+    try (PrintWriter writer = new PrintWriter(new FileWriter(file))) {
+      writer.printf("# flywheel fit from %d samples on %s, speeds in shooter RPM%n", count,
+          new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date()));
+      writer.println("# kS (V), kV (V/RPM), kA (V/(RPM/s))");
+      writer.printf("%f, %f, %f%n", gains[0], gains[1], gains[2]);
+      System.out.println("Wrote flywheel gains to " + file);
+    } catch (IOException e) {
+      System.out.println("Could not write flywheel gains to " + file + ": " + e.getMessage());
+    }
+  }
+
+  private void fitHood() {
+    LeastSquares fit = new LeastSquares(3);
+
+    for (int i = 0; i < sampleCount; i++) {
+      double[] row = samples[i];
+      if (!inPhase(row, Phase.HOOD_UP, Phase.HOOD_DOWN) || Math.abs(row[HOOD_SPEED]) < HOOD_MIN_SPEED) {
+        continue;
+      }
+      fit.add(row[HOOD_VOLTAGE], Math.signum(row[HOOD_SPEED]), 1, row[HOOD_SPEED]);
+    }
+
+    double[] gains = fit.solve();
+    if (gains == null) {
+      System.out.println("Not enough hood data to fit (" + fit.getCount() + " samples)");
+      return;
+    }
+
+    System.out.println("--------------------------------------------------------");
+    System.out.printf("// hood fit from %d samples, speeds in motor rotations per second\n", fit.getCount());
+    System.out.printf("private static final double kHoodS = %f;\n", gains[0]);
+    System.out.printf("private static final double kHoodG = %f;\n", gains[1]);
+    System.out.printf("private static final double kHoodV = %f;\n", gains[2]);
+    System.out.println("--------------------------------------------------------");
+  }
+}
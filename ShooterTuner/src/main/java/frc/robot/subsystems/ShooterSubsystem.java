@@ -24,14 +24,15 @@ public class ShooterSubsystem extends SubsystemBase {
   // Subsystem Constants
   private static final double MAX_RPM = 6000;
   private static final int MAX_CURRENT = 13;
+  private static final int CHARACTERIZATION_CURRENT = 40; // the low tuning limit would cap the steps
   private static final double shooterBeltRatio = 0.66;
   private static final double speedIncrement = 50;
 
   // Hood related constants
   private static final double MAX_HOOD_ANGLE = 85;
   private static final double MIN_HOOD_ANGLE = 67;
-  private static final double HOOD_LOWER_LIMIT = 0;
-  private static final double HOOD_UPPER_LIMIT = 13.5;
+  public static final double HOOD_LOWER_LIMIT = 0;
+  public static final double HOOD_UPPER_LIMIT = 13.5;
   private static final double ROTATIONS_PER_DEGREE = (HOOD_UPPER_LIMIT - HOOD_LOWER_LIMIT)
       / (MAX_HOOD_ANGLE - MIN_HOOD_ANGLE);
   private static final double angleIncrement = 1;
@@ -256,6 +257,66 @@ public class ShooterSubsystem extends SubsystemBase {
     System.out.println("--------------------------------------------------------");
   }
 
+  // ---------------------------------------------------------------------------
+  // Characterization methods, open loop voltage control and raw readings. These
+  // may be called from a characterization Notifier thread.
+  // ---------------------------------------------------------------------------
+
+  /**
+   * Drive the flywheel open loop. Stops any closed loop speed control until
+   * start() is called again.
+   */
+  public void setShooterVoltage(double volts) {
+    motorState = MotorState.STOPPED;
+    shooterMotor1.setVoltage(volts);
+  }
+
+  public void setCharacterizationCurrentLimit(boolean characterizing) {
+    int limit = characterizing ? CHARACTERIZATION_CURRENT : MAX_CURRENT;
+    shooterMotor1.setSmartCurrentLimit(limit);
+    shooterMotor2.setSmartCurrentLimit(limit);
+  }
+
+  // flywheel speed in RPM
+  public double getShooterVelocity() {
+    return shooterEncoder.getVelocity();
+  }
+
+  // voltage actually applied to the flywheel motors
+  public double getShooterVoltage() {
+    return shooterMotor1.getAppliedOutput() * shooterMotor1.getBusVoltage();
+  }
+
+  public double getShooterCurrent() {
+    return shooterMotor1.getOutputCurrent() + shooterMotor2.getOutputCurrent();
+  }
+
+  public void setHoodVoltage(double volts) {
+    hoodMotor.setVoltage(volts);
+  }
+
+  // hood position in motor rotations, 0 at the limit switch
+  public double getHoodPosition() {
+    return hoodEncoder.getPosition();
+  }
+
+  // hood speed in motor rotations per second
+  public double getHoodVelocity() {
+    return hoodEncoder.getVelocity() / 60.0;
+  }
+
+  public double getHoodVoltage() {
+    return hoodMotor.getAppliedOutput() * hoodMotor.getBusVoltage();
+  }
+
+  public double getHoodCurrent() {
+    return hoodMotor.getOutputCurrent();
+  }
+
+  public boolean isHoodParked() {
+    return !parkingHood;
+  }
+
   // ---------------------------------------------------------------------------
   // Hood Control methods
   // ---------------------------------------------------------------------------
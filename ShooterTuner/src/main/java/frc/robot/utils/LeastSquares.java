@@ -0,0 +1,76 @@
+package frc.robot.utils;
+
+/**
+ * Ordinary least squares fit of y = x . b, accumulated one sample at a time so
+ * the samples themselves don't need to be kept.
+ */
+public class LeastSquares {
+
+  private final int size;
+  private final double[][] xtx; // X^T X
+  private final double[] xty; // X^T y
+  private int count = 0;
+
+  public LeastSquares(int size) {
+    this.size = size;
+    xtx = new double[size][size];
+    xty = new double[size];
+  }
+
+  public void add(double y, double... x) {
+    for (int i = 0; i < size; i++) {
+      for (int j = 0; j < size; j++) {
+        xtx[i][j] += x[i] * x[j];
+      }
+      xty[i] += x[i] * y;
+    }
+    count++;
+  }
+
+  public int getCount() {
+    return count;
+  }
+
+  /**
+   * Solve the normal equations by Gaussian elimination with partial pivoting.
+   *
+   * @return The coefficients, or null if there are not enough independent samples
+   */
+  public double[] solve() {
+    double[][] a = new double[size][size + 1];
+    for (int i = 0; i < size; i++) {
+      System.arraycopy(xtx[i], 0, a[i], 0, size);
+      a[i][size] = xty[i];
+    }
+
+    for (int col = 0; col < size; col++) {
+      int pivot = col;
+      for (int row = col + 1; row < size; row++) {
+        if (Math.abs(a[row][col]) > Math.abs(a[pivot][col])) {
+          pivot = row;
+        }
+      }
+      if (Math.abs(a[pivot][col]) < 1e-12) {
+        return null;
+      }
+      double[] swap = a[col];
+      a[col] = a[pivot];
+      a[pivot] = swap;
+
+      for (int row = 0; row < size; row++) {
+        if (row != col) {
+          double factor = a[row][col] / a[col][col];
+          for (int k = col; k <= size; k++) {
+            a[row][k] -= factor * a[col][k];
+          }
+        }
+      }
+    }
+
+    double[] result = new double[size];
+    for (int i = 0; i < size; i++) {
+      result[i] = a[i][size] / a[i][i];
+    }
+    return result;
+  }
+}